@@ -0,0 +1,53 @@
+package com.diagram.ai.benchmarks;
+
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.core.DiagramOutputParser;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LLM output parsing and the Gson round trip of {@link Diagram.Element} used by the text endpoint, the cache
+ * keys and the job store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiagramParsingBenchmark {
+    private static final Gson GSON = new Gson();
+
+    @Param({"5", "50"})
+    private int participants;
+
+    private String json;
+    private String llmOutput;
+    private Diagram.Element element;
+    private DiagramOutputParser parser;
+
+    @Setup
+    public void setUp() {
+        element = Fixtures.element(participants);
+        json = GSON.toJson(element);
+        llmOutput = "Here is the diagram description:\n```json\n" + json + "\n```\nLet me know if you need anything else.";
+        parser = new DiagramOutputParser();
+    }
+
+    @Benchmark
+    public Diagram.Element parseLlmOutput() {
+        return parser.parse(llmOutput);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return GSON.toJson(element);
+    }
+
+    @Benchmark
+    public Diagram.Element fromJson() {
+        return GSON.fromJson(json, Diagram.Element.class);
+    }
+}
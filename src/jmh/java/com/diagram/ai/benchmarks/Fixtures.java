@@ -0,0 +1,49 @@
+package com.diagram.ai.benchmarks;
+
+import com.diagram.ai.core.Diagram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class Fixtures {
+
+    private Fixtures() {}
+
+    /**
+     * A chain of {@code participants} components grouped in containers of ten, close to what the describer returns.
+     */
+    static Diagram.Element element(int participants) {
+        var element = new Diagram.Element();
+        element.setType("component");
+        element.setTitle("Benchmark diagram");
+        element.setParticipants(new ArrayList<>());
+        element.setRelations(new ArrayList<>());
+        element.setContainers(new ArrayList<>());
+        element.setDescription(List.of("generated for benchmarks"));
+
+        for (int i = 0; i < participants; i++) {
+            var participant = new Diagram.Participant();
+            participant.setName("Component " + i);
+            participant.setShape(i % 3 == 0 ? "cylinder" : "rectangle");
+            participant.setDescription("component number " + i);
+            element.getParticipants().add(participant);
+
+            if (i > 0) {
+                var relation = new Diagram.Relation();
+                relation.setSource("Component " + (i - 1));
+                relation.setTarget("Component " + i);
+                relation.setDescription("calls");
+                element.getRelations().add(relation);
+            }
+
+            if (i % 10 == 0) {
+                var container = new Diagram.Container();
+                container.setName("Group " + i / 10);
+                container.setChildren(new ArrayList<>());
+                element.getContainers().add(container);
+            }
+            element.getContainers().getLast().getChildren().add(participant.getName());
+        }
+        return element;
+    }
+}
@@ -0,0 +1,52 @@
+package com.diagram.ai.benchmarks;
+
+import com.diagram.ai.core.PlantUMLAction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse cost of {@link PlantUMLAction#validate(String)}; invalid scripts also pay for the UTXT error rendering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlantUMLValidationBenchmark {
+
+    @Param({"10", "100", "500"})
+    private int participants;
+
+    @Param({"true", "false"})
+    private boolean valid;
+
+    private String code;
+
+    @Setup
+    public void setUp() {
+        var builder = new StringBuilder("@startuml\n");
+        for (int i = 0; i < participants; i++) {
+            builder.append("rectangle \"Component ").append(i).append("\" as c").append(i).append('\n');
+        }
+        for (int i = 1; i < participants; i++) {
+            builder.append("c").append(i - 1).append(" --> c").append(i).append(" : calls\n");
+        }
+        if (!valid) {
+            // a typical LLM mistake, placed last so the whole script is parsed before failing
+            builder.append("c0 -> -> c1\n");
+        }
+        code = builder.append("@enduml\n").toString();
+    }
+
+    @Benchmark
+    public Object validate() {
+        try {
+            return PlantUMLAction.validate(code).join();
+        } catch (CompletionException e) {
+            return e.getCause();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.diagram.ai.benchmarks;
+
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.core.DiagramPromptEncoder;
+import com.diagram.ai.core.ImageToDiagram;
+import com.diagram.ai.llm.TokenEstimator;
+import dev.langchain4j.model.input.Prompt;
+import dev.langchain4j.model.input.PromptTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt preparation done before every LLM call: reading the template from the classpath, encoding the diagram,
+ * applying the template and estimating the prompt size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptTemplateBenchmark {
+
+    @Param({"describe_diagram_image.txt", "convert_generic_diagram_to_plantuml.txt", "review_diagram.txt"})
+    private String resource;
+
+    private ImageToDiagram loader;
+    private PromptTemplate generateTemplate;
+    private Diagram.Element element;
+
+    @Setup
+    public void setUp() throws Exception {
+        loader = inputs -> {
+            throw new UnsupportedOperationException();
+        };
+        generateTemplate = loader.loadPromptTemplate("convert_generic_diagram_to_plantuml.txt");
+        element = Fixtures.element(20);
+    }
+
+    @Benchmark
+    public PromptTemplate loadPromptTemplate() throws Exception {
+        return loader.loadPromptTemplate(resource);
+    }
+
+    @Benchmark
+    public String encode() {
+        return DiagramPromptEncoder.encode(element);
+    }
+
+    @Benchmark
+    public Prompt apply() {
+        return generateTemplate.apply(Map.of("diagram_description", DiagramPromptEncoder.encode(element)));
+    }
+
+    @Benchmark
+    public int estimateTokens() {
+        return TokenEstimator.estimate(generateTemplate.apply(
+                Map.of("diagram_description", DiagramPromptEncoder.encode(element))).text());
+    }
+}
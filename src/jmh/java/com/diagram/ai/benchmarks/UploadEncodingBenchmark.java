@@ -0,0 +1,35 @@
+package com.diagram.ai.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 encoding of uploaded images before they enter the graph state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadEncodingBenchmark {
+
+    @Param({"65536", "1048576", "8388608"})
+    private int size;
+
+    private byte[] upload;
+
+    @Setup
+    public void setUp() {
+        upload = new byte[size];
+        new Random(42).nextBytes(upload);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.getEncoder().encodeToString(upload);
+    }
+}
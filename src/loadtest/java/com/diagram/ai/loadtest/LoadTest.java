@@ -0,0 +1,267 @@
+package com.diagram.ai.loadtest;
+
+import com.diagram.ai.Application;
+import com.diagram.ai.core.Diagram;
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the service against an {@link OpenAiStub} and measures both controller endpoints at increasing
+ * concurrency. Everything runs in process and offline.
+ * <p>
+ * Settings are system properties:
+ * <ul>
+ *     <li>{@code loadtest.concurrency} levels to run, default {@code 1,4,16,64}</li>
+ *     <li>{@code loadtest.requests} requests per endpoint and level, default {@code 200}</li>
+ *     <li>{@code loadtest.latency} stub latency, see {@link OpenAiStub.LatencyDistribution}, default
+ *     {@code lognormal:800ms:0.5}</li>
+ *     <li>{@code loadtest.errorRate} probability of a broken PlantUML answer, default {@code 0.3}</li>
+ *     <li>{@code loadtest.minThroughput} requests per second every level must reach, the process exits with 1
+ *     otherwise; unset by default</li>
+ *     <li>{@code loadtest.report} CSV written with the results, default {@code target/loadtest-report.csv}</li>
+ * </ul>
+ */
+public class LoadTest {
+    private static final Gson GSON = new Gson();
+    private static final String BOUNDARY = "loadtest-boundary";
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final String baseUrl;
+    private final MeterRegistry meters;
+    private final byte[] textBody;
+    private final byte[] imageBody;
+
+    record Result(String endpoint, int concurrency, int requests, int failures, double throughput,
+                  long p50, long p95, long p99, double depth) {
+
+        String csv() {
+            return String.join(",", endpoint, String.valueOf(concurrency), String.valueOf(requests),
+                    String.valueOf(failures), "%.2f".formatted(throughput), String.valueOf(p50), String.valueOf(p95),
+                    String.valueOf(p99), "%.2f".formatted(depth));
+        }
+    }
+
+    LoadTest(String baseUrl, MeterRegistry meters) throws IOException {
+        this.baseUrl = baseUrl;
+        this.meters = meters;
+        this.textBody = GSON.toJson(element()).getBytes(StandardCharsets.UTF_8);
+        this.imageBody = multipart(image());
+    }
+
+    public static void main(String[] args) throws Exception {
+        var levels = Arrays.stream(System.getProperty("loadtest.concurrency", "1,4,16,64").split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        int requests = Integer.getInteger("loadtest.requests", 200);
+        var latency = OpenAiStub.LatencyDistribution.parse(System.getProperty("loadtest.latency", "lognormal:800ms:0.5"));
+        double errorRate = Double.parseDouble(System.getProperty("loadtest.errorRate", "0.3"));
+        var minThroughput = System.getProperty("loadtest.minThroughput");
+        var report = Path.of(System.getProperty("loadtest.report", "target/loadtest-report.csv"));
+
+        var results = new ArrayList<Result>();
+        try (var stub = new OpenAiStub(0, latency, errorRate);
+             var context = start(stub.baseUrl())) {
+            var port = context.getEnvironment().getProperty("local.server.port");
+            var test = new LoadTest("http://localhost:" + port + "/api", context.getBean(MeterRegistry.class));
+
+            // one round at low concurrency so class loading and PlantUML's cold start stay out of the numbers
+            test.run("textToDiagram", 2, 10);
+
+            for (int concurrency : levels) {
+                results.add(test.run("textToDiagram", concurrency, requests));
+                results.add(test.run("imageToDiagram", concurrency, requests));
+            }
+            System.out.println("stub calls: " + stub);
+        }
+
+        var lines = new ArrayList<String>();
+        lines.add("endpoint,concurrency,requests,failures,throughput,p50_ms,p95_ms,p99_ms,correction_depth");
+        results.forEach(result -> lines.add(result.csv()));
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Files.write(report, lines);
+
+        System.out.println();
+        System.out.printf("%-15s %11s %8s %8s %10s %8s %8s %8s %6s%n",
+                "endpoint", "concurrency", "requests", "failures", "req/s", "p50 ms", "p95 ms", "p99 ms", "depth");
+        results.forEach(r -> System.out.printf("%-15s %11d %8d %8d %10.2f %8d %8d %8d %6.2f%n",
+                r.endpoint(), r.concurrency(), r.requests(), r.failures(), r.throughput(), r.p50(), r.p95(), r.p99(),
+                r.depth()));
+        System.out.println("report written to " + report.toAbsolutePath());
+
+        if (minThroughput != null) {
+            var threshold = Double.parseDouble(minThroughput);
+            var slow = results.stream().filter(result -> result.throughput() < threshold).toList();
+            if (!slow.isEmpty()) {
+                System.err.println("throughput below " + threshold + " req/s: " + slow);
+                System.exit(1);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext start(String stubUrl) {
+        return new SpringApplicationBuilder(Application.class)
+                .profiles("local")
+                .properties(
+                        "server.port=0",
+                        "ai.base-url=" + stubUrl,
+                        "ai.api-key=stub",
+                        "ai.log-requests=false",
+                        "ai.log-responses=false",
+                        // every request has the same content, the cache, the coalescing of identical requests and
+                        // the checkpoints would turn the test into a cache benchmark
+                        "diagram.cache.enabled=false",
+                        "diagram.single-flight.enabled=false",
+                        "diagram.checkpoint.enabled=false",
+                        "diagram.jobs.directory=target/loadtest/jobs",
+                        "logging.level.com.diagram.ai=WARN")
+                .run();
+    }
+
+    Result run(String endpoint, int concurrency, int requests) throws InterruptedException {
+        var depthBefore = correctionReviews();
+        var loopsBefore = correctionLoops();
+
+        var latencies = Collections.synchronizedList(new ArrayList<Long>(requests));
+        var failures = new AtomicInteger();
+        var permits = new Semaphore(concurrency);
+
+        long start = System.nanoTime();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        long sent = System.nanoTime();
+                        var response = client.send(request(endpoint), HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() == 200) {
+                            latencies.add((System.nanoTime() - sent) / 1_000_000);
+                        } else {
+                            failures.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        var sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        var loops = correctionLoops() - loopsBefore;
+        var depth = loops > 0 ? (correctionReviews() - depthBefore) / loops : 0;
+
+        var result = new Result(endpoint, concurrency, requests, failures.get(), sorted.size() / seconds,
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99), depth);
+        System.out.println(result);
+        return result;
+    }
+
+    private HttpRequest request(String endpoint) {
+        var builder = HttpRequest.newBuilder(URI.create(baseUrl + "/plant/" + endpoint))
+                .timeout(Duration.ofMinutes(5));
+        if (endpoint.equals("imageToDiagram")) {
+            return builder.header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(imageBody))
+                    .build();
+        }
+        return builder.header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(textBody))
+                .build();
+    }
+
+    private double correctionReviews() {
+        return meters.find("diagram.correction.iterations").summaries().stream()
+                .mapToDouble(DistributionSummary::totalAmount)
+                .sum();
+    }
+
+    private long correctionLoops() {
+        return meters.find("diagram.correction.iterations").summaries().stream()
+                .mapToLong(DistributionSummary::count)
+                .sum();
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    /**
+     * Same content as the stub's image description, with a shape the local compiler does not know, so every request
+     * goes through the LLM translation.
+     */
+    private static Diagram.Element element() {
+        var json = OpenAiStub.DESCRIPTION.replace("```json", "").replace("```", "");
+        return GSON.fromJson(json, Diagram.Element.class);
+    }
+
+    private static byte[] image() throws IOException {
+        var image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+        var graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+            graphics.setColor(Color.BLACK);
+            graphics.drawRect(100, 100, 300, 150);
+            graphics.drawRect(700, 100, 300, 150);
+            graphics.drawLine(400, 175, 700, 175);
+            graphics.drawString("Web Shop", 200, 180);
+            graphics.drawString("Orders", 800, 180);
+        } finally {
+            graphics.dispose();
+        }
+        try (var output = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", output);
+            return output.toByteArray();
+        }
+    }
+
+    private static byte[] multipart(byte[] image) throws IOException {
+        try (var output = new ByteArrayOutputStream()) {
+            output.write(("--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + UUID.randomUUID() + ".png\"\r\n"
+                    + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            output.write(image);
+            output.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+            return output.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.diagram.ai.loadtest;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * OpenAI compatible {@code /chat/completions} endpoint answering with canned content.
+ * <p>
+ * The request is recognised by its prompt: an image part is the describer, the reviewer prompt is the review,
+ * anything else is the PlantUML translation. Translations and reviews contain a PlantUML error with probability
+ * {@code errorRate}, which drives the correction loop as deep as a real model would. Like real models the stub adds
+ * some chatter after the payload; streamed answers are sent in small chunks with the latency spread over them.
+ */
+@Slf4j
+public class OpenAiStub implements AutoCloseable {
+    private static final Gson GSON = new Gson();
+    private static final Pattern STREAM = Pattern.compile("\"stream\"\\s*:\\s*true");
+    private static final String CHATTER = """
+
+            This diagram shows the main participants and how they interact. Let me know if you would like me to
+            add more details, change the layout or use a different diagram type.
+            """;
+    private static final int CHUNK = 16;
+
+    static final String DESCRIPTION = """
+            ```json
+            {
+              "type": "process",
+              "title": "Order processing",
+              "participants": [
+                { "name": "Customer", "shape": "stickman", "description": "places orders" },
+                { "name": "Web Shop", "shape": "cloud", "description": "public storefront" },
+                { "name": "Orders", "shape": "cylinder", "description": "order database" }
+              ],
+              "relations": [
+                { "source": "Customer", "target": "Web Shop", "description": "orders" },
+                { "source": "Web Shop", "target": "Orders", "description": "stores" }
+              ],
+              "containers": [],
+              "description": ["A customer orders through the web shop"]
+            }
+            ```
+            """;
+
+    private static final String PLANTUML = """
+            @startuml
+            title Order processing
+            actor Customer
+            cloud "Web Shop" as webShop
+            database Orders
+            Customer --> webShop : orders
+            webShop --> Orders : stores
+            %s@enduml
+            """;
+
+    private final HttpServer server;
+    private final LatencyDistribution latency;
+    private final double errorRate;
+
+    private final AtomicLong describes = new AtomicLong();
+    private final AtomicLong translations = new AtomicLong();
+    private final AtomicLong reviews = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong abandonedStreams = new AtomicLong();
+
+    public OpenAiStub(int port, LatencyDistribution latency, double errorRate) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/v1/chat/completions", this::handle);
+        this.server.start();
+        log.info("OpenAI stub listening on {} with latency {} and error rate {}", baseUrl(), latency, errorRate);
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1";
+    }
+
+    public long reviews() {
+        return reviews.get();
+    }
+
+    @Override
+    public String toString() {
+        return "describes=" + describes.get() + ", translations=" + translations.get() + ", reviews=" + reviews.get()
+                + ", injected errors=" + injectedErrors.get() + ", streams stopped early=" + abandonedStreams.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            String content;
+            if (request.contains("\"image_url\"")) {
+                describes.incrementAndGet();
+                content = DESCRIPTION;
+            } else if (request.contains("PlantUML reviewer")) {
+                reviews.incrementAndGet();
+                content = plantUML();
+            } else {
+                translations.incrementAndGet();
+                content = plantUML();
+            }
+
+            content += CHATTER;
+            if (STREAM.matcher(request).find()) {
+                stream(exchange, content);
+                return;
+            }
+
+            Thread.sleep(latency.sample().toMillis());
+
+            var body = GSON.toJson(Map.of(
+                    "id", "chatcmpl-stub",
+                    "object", "chat.completion",
+                    "created", System.currentTimeMillis() / 1000,
+                    "model", "stub",
+                    "choices", List.of(Map.of(
+                            "index", 0,
+                            "message", Map.of("role", "assistant", "content", content),
+                            "finish_reason", "stop")),
+                    "usage", Map.of(
+                            "prompt_tokens", request.length() / 4,
+                            "completion_tokens", content.length() / 4,
+                            "total_tokens", (request.length() + content.length()) / 4)));
+
+            var bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stream(HttpExchange exchange, String content) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+
+        int chunks = (content.length() + CHUNK - 1) / CHUNK;
+        long pause = latency.sample().toMillis() / chunks;
+        var output = exchange.getResponseBody();
+        try {
+            for (int start = 0; start < content.length(); start += CHUNK) {
+                Thread.sleep(pause);
+                var delta = content.substring(start, Math.min(start + CHUNK, content.length()));
+                output.write(event(Map.of("content", delta), null));
+                output.flush();
+            }
+            output.write(event(Map.of(), "stop"));
+            output.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        } catch (IOException e) {
+            // the client stopped reading once it had the payload
+            abandonedStreams.incrementAndGet();
+        }
+    }
+
+    private static byte[] event(Map<String, String> delta, String finishReason) {
+        var choice = new HashMap<String, Object>(Map.of("index", 0, "delta", delta));
+        if (finishReason != null) {
+            choice.put("finish_reason", finishReason);
+        }
+        var chunk = GSON.toJson(Map.of(
+                "id", "chatcmpl-stub",
+                "object", "chat.completion.chunk",
+                "created", System.currentTimeMillis() / 1000,
+                "model", "stub",
+                "choices", List.of(choice)));
+        return ("data: " + chunk + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Broken scripts differ from each other, so the correction loop does not stop on two equal attempts.
+     */
+    private String plantUML() {
+        if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            return PLANTUML.formatted("webShop -> -> Orders : broken " + injectedErrors.incrementAndGet() + "\n");
+        }
+        return PLANTUML.formatted("");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    /**
+     * Latency of one stub response: {@code fixed:800ms}, {@code uniform:200ms:2s} or {@code lognormal:800ms:0.5}
+     * where the last value is the standard deviation of the underlying normal distribution.
+     */
+    public record LatencyDistribution(String kind, Duration first, double second) {
+
+        public static LatencyDistribution parse(String value) {
+            var parts = value.split(":");
+            return switch (parts[0]) {
+                case "fixed" -> new LatencyDistribution("fixed", duration(parts[1]), 0);
+                case "uniform" -> new LatencyDistribution("uniform", duration(parts[1]), duration(parts[2]).toMillis());
+                case "lognormal" -> new LatencyDistribution("lognormal", duration(parts[1]), Double.parseDouble(parts[2]));
+                default -> throw new IllegalArgumentException("unknown latency distribution: " + value);
+            };
+        }
+
+        Duration sample() {
+            var random = ThreadLocalRandom.current();
+            return switch (kind) {
+                case "uniform" -> Duration.ofMillis(random.nextLong(first.toMillis(), (long) second + 1));
+                case "lognormal" -> Duration.ofMillis(Math.round(first.toMillis() * Math.exp(second * random.nextGaussian())));
+                default -> first;
+            };
+        }
+
+        private static Duration duration(String value) {
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            }
+            if (value.endsWith("s")) {
+                return Duration.ofMillis(Math.round(Double.parseDouble(value.substring(0, value.length() - 1)) * 1000));
+            }
+            return Duration.ofMillis(Long.parseLong(value));
+        }
+
+        @Override
+        public String toString() {
+            return switch (kind) {
+                case "uniform" -> "uniform " + first.toMillis() + "-" + (long) second + " ms";
+                case "lognormal" -> "lognormal median " + first.toMillis() + " ms sigma " + second;
+                default -> "fixed " + first.toMillis() + " ms";
+            };
+        }
+    }
+}
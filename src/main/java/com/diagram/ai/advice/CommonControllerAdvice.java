@@ -3,8 +3,10 @@ package com.diagram.ai.advice;
 import com.diagram.ai.exceptions.BadRequestException;
 import com.diagram.ai.exceptions.InvalidDataException;
 import com.diagram.ai.exceptions.NotFoundException;
+import com.diagram.ai.exceptions.ServiceUnavailableException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -44,6 +46,17 @@ public class CommonControllerAdvice {
                 .body(ex.getMessage());
     }
 
+    @ExceptionHandler(ServiceUnavailableException.class)
+    @ResponseBody
+    protected ResponseEntity<String> handleServiceUnavailableException(ServiceUnavailableException ex) {
+        log.warn("ServiceUnavailableException: {}", ex.getMessage());
+        var response = ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE);
+        if (ex.getRetryAfter() != null) {
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, ex.getRetryAfter().toSeconds())));
+        }
+        return response.body(ex.getMessage());
+    }
+
     @ExceptionHandler(Exception.class)
     @ResponseBody
     protected ResponseEntity<String> handleUndefinedException(Exception ex) {
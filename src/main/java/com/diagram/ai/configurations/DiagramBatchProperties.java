@@ -0,0 +1,17 @@
+package com.diagram.ai.configurations;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "diagram.batch")
+public class DiagramBatchProperties {
+    /**
+     * Items of one batch converted at the same time.
+     */
+    private int concurrency = 4;
+    private int maxItems = 100;
+    private Duration timeout = Duration.ofMinutes(30);
+}
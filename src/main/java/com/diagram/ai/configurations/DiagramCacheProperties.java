@@ -0,0 +1,32 @@
+package com.diagram.ai.configurations;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "diagram.cache")
+public class DiagramCacheProperties {
+    private boolean enabled = true;
+    private int maxEntries = 1000;
+    private Duration ttl = Duration.ofDays(1);
+    private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "ai-diagram-service", "cache");
+    /**
+     * Entries kept on disk, the oldest are deleted by the periodic purge beyond this.
+     */
+    private int maxDiskEntries = 10_000;
+    /**
+     * How often expired and surplus entries are deleted from disk.
+     */
+    private Duration purgeInterval = Duration.ofHours(1);
+    /**
+     * Prompt templates whose content is part of the cache key, so editing any of them invalidates the cache.
+     */
+    private List<String> templates = List.of(
+            "describe_diagram_image.txt",
+            "convert_generic_diagram_to_plantuml.txt",
+            "review_diagram.txt");
+}
@@ -0,0 +1,21 @@
+package com.diagram.ai.configurations;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "diagram.checkpoint")
+public class DiagramCheckpointProperties {
+    /**
+     * Save the pipeline state after every node, so a retried conversion resumes after the last completed node.
+     */
+    private boolean enabled = true;
+    /**
+     * Age after which a checkpoint is no longer resumed and gets deleted.
+     */
+    private Duration ttl = Duration.ofHours(1);
+    private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "ai-diagram-service", "checkpoints");
+}
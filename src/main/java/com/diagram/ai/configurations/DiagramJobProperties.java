@@ -0,0 +1,27 @@
+package com.diagram.ai.configurations;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "diagram.jobs")
+public class DiagramJobProperties {
+    private int workers = 4;
+    private int queueCapacity = 100;
+    private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "ai-diagram-service", "jobs");
+    /**
+     * How long finished jobs stay available for polling.
+     */
+    private Duration retention = Duration.ofDays(7);
+    /**
+     * Hosts a callbackUrl may point to, callbacks are https only and rejected when the list is empty.
+     */
+    private List<String> callbackHosts = new ArrayList<>();
+    private Duration callbackConnectTimeout = Duration.ofSeconds(5);
+    private Duration callbackReadTimeout = Duration.ofSeconds(10);
+}
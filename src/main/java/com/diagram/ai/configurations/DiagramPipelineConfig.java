@@ -0,0 +1,84 @@
+package com.diagram.ai.configurations;
+
+import com.diagram.ai.core.CorrectionBudget;
+import com.diagram.ai.core.DiagramCorrectionProcess;
+import com.diagram.ai.core.ImagePreprocessor;
+import com.diagram.ai.core.PipelineEvents;
+import com.diagram.ai.core.PipelineExecutors;
+import com.diagram.ai.core.PipelineMetrics;
+import com.diagram.ai.core.PlantUMLValidator;
+import com.diagram.ai.core.ToDiagramProcess;
+import com.diagram.ai.core.repair.PlantUMLRepairChain;
+import com.diagram.ai.llm.LlmClientRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bsc.langgraph4j.GraphStateException;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The langgraph4j graphs are compiled once here and shared by all requests; per request data travels in the state.
+ */
+@Configuration
+public class DiagramPipelineConfig {
+
+    @Bean
+    public PipelineExecutors pipelineExecutors(DiagramPipelineProperties properties) {
+        return new PipelineExecutors(properties.getCpuThreads());
+    }
+
+    @Bean
+    public PipelineMetrics pipelineMetrics(MeterRegistry meterRegistry) {
+        return new PipelineMetrics(meterRegistry);
+    }
+
+    @Bean
+    public PipelineEvents pipelineEvents() {
+        return new PipelineEvents();
+    }
+
+    @Bean
+    public ImagePreprocessor imagePreprocessor(DiagramPipelineProperties properties) {
+        var image = properties.getImage();
+        return new ImagePreprocessor(image.isPreprocess(), image.getMaxDimension(), image.getMaxPixels());
+    }
+
+    @Bean
+    public PlantUMLValidator plantUMLValidator(DiagramPipelineProperties properties, PipelineMetrics metrics) {
+        var validation = properties.getValidation();
+        return new PlantUMLValidator(validation.getThreads(), validation.getTimeout(), validation.getMaxLength(),
+                validation.getMaxLines(), validation.getCacheSize(), metrics);
+    }
+
+    @Bean
+    public PlantUMLRepairChain plantUMLRepairChain(PlantUMLValidator validator) {
+        return PlantUMLRepairChain.defaultChain(validator);
+    }
+
+    @Bean
+    public DiagramCorrectionProcess diagramCorrectionProcess(LlmClientRegistry llm,
+                                                             PlantUMLValidator validator,
+                                                             PlantUMLRepairChain repairChain,
+                                                             DiagramPipelineProperties properties,
+                                                             PipelineEvents events,
+                                                             PipelineExecutors executors,
+                                                             PipelineMetrics metrics) throws GraphStateException {
+        var correction = properties.getCorrection();
+        var budget = new CorrectionBudget(
+                correction.getMaxIterations(), correction.getMaxDuration(), correction.getMaxTokens());
+        return new DiagramCorrectionProcess(llm, validator, repairChain, budget, events, executors, metrics);
+    }
+
+    @Bean
+    public ToDiagramProcess toDiagramProcess(LlmClientRegistry llm,
+                                             DiagramCorrectionProcess diagramCorrectionProcess,
+                                             ImagePreprocessor imagePreprocessor,
+                                             PlantUMLValidator validator,
+                                             DiagramPipelineProperties properties,
+                                             PipelineEvents events,
+                                             PipelineExecutors executors,
+                                             PipelineMetrics metrics) throws GraphStateException {
+        return new ToDiagramProcess(llm, diagramCorrectionProcess, imagePreprocessor, validator, properties, events,
+                executors, metrics);
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.diagram.ai.configurations;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "diagram.pipeline")
+public class DiagramPipelineProperties {
+    private Compiler compiler = new Compiler();
+    private Image image = new Image();
+    private Validation validation = new Validation();
+    private Correction correction = new Correction();
+    private Partitioning partitioning = new Partitioning();
+    private Speculation speculation = new Speculation();
+    /**
+     * Platform threads for PlantUML parsing and rendering, 0 means one per core.
+     */
+    private int cpuThreads = 0;
+
+    @Data
+    public static class Compiler {
+        /**
+         * Translate diagrams with known shapes to PlantUML locally and only call the LLM for the rest.
+         */
+        private boolean enabled = true;
+    }
+
+    @Data
+    public static class Validation {
+        /**
+         * Threads dedicated to PlantUML validation, 0 means one per core.
+         */
+        private int threads = 0;
+        /**
+         * Parse time budget of one script, the caller of a longer parse gets an execution error. The parse itself
+         * cannot be stopped and keeps its thread until it ends, max-length and max-lines bound how long that is.
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+        /**
+         * Longer scripts, in characters or in lines, are rejected as execution errors without parsing.
+         */
+        private int maxLength = 100_000;
+        private int maxLines = 2000;
+        /**
+         * Recent verdicts kept in memory.
+         */
+        private int cacheSize = 1000;
+    }
+
+    /**
+     * Budgets of one request's correction loop; when one runs out the last diagram is returned, flagged invalid.
+     */
+    @Data
+    public static class Correction {
+        /**
+         * LLM reviews, 0 for no limit.
+         */
+        private int maxIterations = 5;
+        /**
+         * Wall-clock time since the request started.
+         */
+        private Duration maxDuration = Duration.ofMinutes(5);
+        /**
+         * Tokens spent on LLM calls by the whole request, 0 for no limit.
+         */
+        private int maxTokens = 30000;
+    }
+
+    /**
+     * Translation of large diagrams part by part, see {@code DiagramPartitioner}.
+     */
+    @Data
+    public static class Partitioning {
+        private boolean enabled = false;
+        /**
+         * Diagrams with fewer participants are translated in one call.
+         */
+        private int minParticipants = 30;
+        /**
+         * Participants per part, containers and connected participants are never split.
+         */
+        private int maxPartSize = 12;
+    }
+
+    /**
+     * Several PlantUML candidates generated in parallel for the same diagram, the first valid one is kept.
+     */
+    @Data
+    public static class Speculation {
+        private boolean enabled = false;
+        /**
+         * Parallel LLM calls per diagram, each one takes a slot of the concurrency limiter.
+         */
+        private int candidates = 3;
+        /**
+         * Sampling temperature of each candidate, reused in turn when there are more candidates than values.
+         */
+        private List<Double> temperatures = List.of(0.0, 0.4, 0.8);
+    }
+
+    @Data
+    public static class Image {
+        /**
+         * Crop, downscale and re-encode uploads before they are sent to the vision model.
+         */
+        private boolean preprocess = true;
+        /**
+         * Longest side in pixels of the image sent to the vision model.
+         */
+        private int maxDimension = 1568;
+        /**
+         * Width times height above which an upload is rejected with 400, checked from the header before decoding.
+         */
+        private long maxPixels = 40_000_000;
+    }
+}
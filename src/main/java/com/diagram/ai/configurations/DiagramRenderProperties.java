@@ -0,0 +1,26 @@
+package com.diagram.ai.configurations;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "diagram.render")
+public class DiagramRenderProperties {
+    /**
+     * Renders running at the same time, 0 means one per core.
+     */
+    private int threads = 0;
+    /**
+     * Renders waiting for a thread before requests are rejected with 503.
+     */
+    private int queueCapacity = 100;
+    /**
+     * Total size of the rendered images kept in memory.
+     */
+    private DataSize cacheSize = DataSize.ofMegabytes(64);
+    /**
+     * Render a small diagram at startup, PlantUML's first render loads fonts and classes and is slow.
+     */
+    private boolean warmUp = true;
+}
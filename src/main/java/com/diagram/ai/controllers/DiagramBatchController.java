@@ -0,0 +1,32 @@
+package com.diagram.ai.controllers;
+
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.services.DiagramBatchService;
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+
+@RequiredArgsConstructor
+@RestController
+public class DiagramBatchController {
+    private final DiagramBatchService service;
+
+    @Operation(summary = "Converts many images and/or JSON diagrams, streams an 'item' event per result and a final 'done'")
+    @PostMapping(
+            path = "/plant/batch",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter batch(@RequestPart(required = false) List<MultipartFile> files,
+                            @RequestPart(required = false) List<Diagram.Element> elements) {
+        return service.convert(files, elements);
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.diagram.ai.controllers;
+
+import com.diagram.ai.model.CacheStats;
+import com.diagram.ai.services.DiagramResultCache;
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RequiredArgsConstructor
+@RestController
+public class DiagramCacheController {
+    private final DiagramResultCache cache;
+
+    @Operation(summary = "Result cache hit/miss/eviction counters")
+    @GetMapping("/plant/cache/stats")
+    public ResponseEntity<CacheStats> stats() {
+        return ResponseEntity.ok().body(cache.stats());
+    }
+
+    @Operation(summary = "Drop every cached result")
+    @DeleteMapping("/plant/cache")
+    public ResponseEntity<Void> invalidate() {
+        cache.invalidateAll();
+        return ResponseEntity.noContent().build();
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.diagram.ai.controllers;
+
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.model.DiagramJob;
+import com.diagram.ai.services.DiagramJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+@RequiredArgsConstructor
+@RestController
+public class DiagramJobController {
+    private final DiagramJobService service;
+
+    @Operation(summary = "Queues an image conversion, the optional callbackUrl receives the finished job")
+    @PostMapping(
+            path = "/plant/jobs",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<DiagramJob> submitImageJob(@RequestPart MultipartFile file,
+                                                     @RequestParam(required = false) String callbackUrl) {
+        return ResponseEntity.accepted().body(service.submitImage(file, callbackUrl));
+    }
+
+    @Operation(summary = "Queues a text conversion, the optional callbackUrl receives the finished job")
+    @PostMapping(
+            path = "/plant/jobs",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<DiagramJob> submitTextJob(@RequestBody Diagram.Element request,
+                                                    @RequestParam(required = false) String callbackUrl) {
+        return ResponseEntity.accepted().body(service.submitText(request, callbackUrl));
+    }
+
+    @Operation(summary = "Status and, once completed, result of a job")
+    @GetMapping(path = "/plant/jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DiagramJob> getJob(@PathVariable String id) {
+        return ResponseEntity.ok().body(service.find(id));
+    }
+
+}
@@ -1,19 +1,41 @@
 package com.diagram.ai.controllers;
 
 import com.diagram.ai.core.Diagram;
+import com.diagram.ai.exceptions.ServiceUnavailableException;
 import com.diagram.ai.model.DiagramResponse;
+import com.diagram.ai.model.RenderFormat;
 import com.diagram.ai.services.DiagramProcessingService;
 import io.swagger.v3.oas.annotations.Operation;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-@RequiredArgsConstructor
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Conversions are answered asynchronously, the request thread is released while the pipeline runs.
+ */
 @RestController
 public class DiagramProcessingController {
+    /**
+     * Sent again with a retry, the retry resumes after the last step the failed attempt completed.
+     */
+    private static final String REQUEST_ID = "X-Request-Id";
+
     private final DiagramProcessingService service;
+    private final Duration timeout;
+
+    public DiagramProcessingController(DiagramProcessingService service,
+                                       @Value("${diagram.request.timeout:PT10M}") Duration timeout) {
+        this.service = service;
+        this.timeout = timeout;
+    }
 
     @Operation(summary = "Ready to use")
     @PostMapping(
@@ -21,16 +43,67 @@ public class DiagramProcessingController {
             consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public ResponseEntity<DiagramResponse> plantImageToDiagram(@RequestPart MultipartFile file) {
-        DiagramResponse result = service.plantImageToDiagram(file);
-        return ResponseEntity.ok().body(result);
+    public DeferredResult<ResponseEntity<DiagramResponse>> plantImageToDiagram(
+            @RequestPart MultipartFile file,
+            @RequestParam(required = false) String render,
+            @RequestHeader(name = REQUEST_ID, required = false) String requestId) {
+        return deferred(service.plantImageToDiagram(file, renderFormat(render), requestId));
     }
 
     @Operation(summary = "Ready to use")
     @PostMapping( "/plant/textToDiagram")
-    public ResponseEntity<DiagramResponse> plantTextToDiagram(@RequestBody Diagram.Element request) {
-        DiagramResponse result = service.plantTextToDiagram(request);
-        return ResponseEntity.ok().body(result);
+    public DeferredResult<ResponseEntity<DiagramResponse>> plantTextToDiagram(
+            @RequestBody Diagram.Element request,
+            @RequestParam(required = false) String render,
+            @RequestHeader(name = REQUEST_ID, required = false) String requestId) {
+        return deferred(service.plantTextToDiagram(request, renderFormat(render), requestId));
+    }
+
+    @Operation(summary = "Streams every pipeline step and LLM token as server-sent events, "
+            + "the last one is 'result' or 'error'")
+    @PostMapping(
+            path = "/plant/imageToDiagram/stream",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter streamImageToDiagram(@RequestPart MultipartFile file,
+                                           @RequestHeader(name = REQUEST_ID, required = false) String requestId) {
+        return service.streamImageToDiagram(file, requestId);
+    }
+
+    @Operation(summary = "Streams every pipeline step and LLM token as server-sent events, "
+            + "the last one is 'result' or 'error'")
+    @PostMapping(path = "/plant/textToDiagram/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTextToDiagram(@RequestBody Diagram.Element request,
+                                          @RequestHeader(name = REQUEST_ID, required = false) String requestId) {
+        return service.streamTextToDiagram(request, requestId);
+    }
+
+    /**
+     * A conversion still running after {@code timeout} is cancelled and answered with 503; retried with the same
+     * request id it resumes where it stopped. A client that goes away cancels it too.
+     */
+    private <T> DeferredResult<ResponseEntity<T>> deferred(CompletableFuture<T> future) {
+        var result = new DeferredResult<ResponseEntity<T>>(timeout.toMillis());
+        future.whenComplete((value, e) -> {
+            if (e != null) {
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                result.setResult(ResponseEntity.ok().body(value));
+            }
+        });
+        // the 503 is set before the cancellation, whose CancellationException would otherwise win as a 500
+        result.onTimeout(() -> {
+            result.setErrorResult(new ServiceUnavailableException(
+                    "Conversion took longer than " + timeout.toSeconds() + "s, retry with the same " + REQUEST_ID));
+            future.cancel(true);
+        });
+        result.onError(e -> future.cancel(true));
+        return result;
+    }
+
+    private static RenderFormat renderFormat(String render) {
+        return render == null || render.isBlank() ? null : RenderFormat.of(render);
     }
 
 }
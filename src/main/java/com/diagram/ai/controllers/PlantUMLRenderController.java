@@ -0,0 +1,54 @@
+package com.diagram.ai.controllers;
+
+import com.diagram.ai.exceptions.ServiceUnavailableException;
+import com.diagram.ai.model.RenderFormat;
+import com.diagram.ai.services.PlantUMLRenderService;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Renders are answered asynchronously, the request thread is released while the render pool works.
+ */
+@RestController
+public class PlantUMLRenderController {
+    private final PlantUMLRenderService service;
+    private final Duration timeout;
+
+    public PlantUMLRenderController(PlantUMLRenderService service,
+                                    @Value("${diagram.request.timeout:PT10M}") Duration timeout) {
+        this.service = service;
+        this.timeout = timeout;
+    }
+
+    @Operation(summary = "Renders PlantUML code to svg or png")
+    @PostMapping(path = "/plant/render", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public DeferredResult<ResponseEntity<byte[]>> render(@RequestBody String code,
+                                                         @RequestParam(defaultValue = "svg") String format) {
+        var renderFormat = RenderFormat.of(format);
+        var result = new DeferredResult<ResponseEntity<byte[]>>(timeout.toMillis());
+        service.renderAsync(code, renderFormat).whenComplete((image, e) -> {
+            if (e != null) {
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                result.setResult(ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType(renderFormat.getMediaType()))
+                        .body(image));
+            }
+        });
+        // a render already on the pool runs to its end, only the answer is given up
+        result.onTimeout(() -> result.setErrorResult(new ServiceUnavailableException(
+                "Render took longer than " + timeout.toSeconds() + "s, retry later")));
+        return result;
+    }
+
+}
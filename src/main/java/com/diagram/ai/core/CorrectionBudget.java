@@ -0,0 +1,34 @@
+package com.diagram.ai.core;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Limits of one request's correction loop. When one runs out the loop stops and the last diagram code is returned
+ * as it is, together with its validation error.
+ *
+ * @param maxReviews  LLM reviews, 0 or less for no limit
+ * @param maxDuration wall-clock time since the request started, null for no limit
+ * @param maxTokens   tokens spent on LLM calls by the whole request, 0 or less for no limit; a call whose usage is
+ *                    unknown exhausts it when usage estimation is off, see {@link ImageToDiagram#tokensSpent}
+ */
+public record CorrectionBudget(int maxReviews, Duration maxDuration, int maxTokens) {
+
+    /**
+     * @return the budget that ran out, empty if the loop may go on
+     */
+    public Optional<String> exhausted(ImageToDiagram.State state) {
+        if (maxReviews > 0 && state.reviews() >= maxReviews) {
+            return Optional.of("reviews");
+        }
+        if (maxTokens > 0 && state.tokens() >= maxTokens) {
+            return Optional.of("tokens");
+        }
+        if (maxDuration != null && state.startedAt()
+                .map(startedAt -> System.currentTimeMillis() - startedAt >= maxDuration.toMillis())
+                .orElse(false)) {
+            return Optional.of("duration");
+        }
+        return Optional.empty();
+    }
+}
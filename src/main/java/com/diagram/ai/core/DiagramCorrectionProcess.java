@@ -1,16 +1,20 @@
 package com.diagram.ai.core;
 
+import com.diagram.ai.core.repair.PlantUMLRepairChain;
 import com.diagram.ai.exceptions.InvalidDataException;
+import com.diagram.ai.llm.LlmClientRegistry;
 import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.model.input.Prompt;
-import dev.langchain4j.model.openai.OpenAiChatModel;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.plantuml.ErrorUmlType;
 import org.bsc.async.AsyncGenerator;
+import org.bsc.langgraph4j.CompiledGraph;
+import org.bsc.langgraph4j.GraphStateException;
 import org.bsc.langgraph4j.NodeOutput;
 import org.bsc.langgraph4j.StateGraph;
 
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
@@ -22,73 +26,122 @@ import static org.bsc.langgraph4j.utils.CollectionsUtils.mapOf;
 @Slf4j(topic = "DiagramCorrectionProcess")
 public class DiagramCorrectionProcess implements ImageToDiagram {
     private static final String EVALUATE_RESULT = "evaluate_result";
+    private static final String LOCAL_REPAIR = "local_repair";
     private static final String AGENT_REVIEW = "agent_review";
+    private static final String GRAPH = "correction";
+
+    private final LlmClientRegistry llm;
+    private final PlantUMLValidator validator;
+    private final PlantUMLRepairChain repairChain;
+    private final CorrectionBudget budget;
+    private final PipelineEvents events;
+    private final PipelineMetrics metrics;
+    private final CompiledGraph<State> app;
+
+    public DiagramCorrectionProcess(LlmClientRegistry llm,
+                                    PlantUMLValidator validator,
+                                    PlantUMLRepairChain repairChain,
+                                    CorrectionBudget budget,
+                                    PipelineEvents events,
+                                    PipelineExecutors executors,
+                                    PipelineMetrics metrics) throws GraphStateException {
+        this.llm = llm;
+        this.validator = validator;
+        this.repairChain = repairChain;
+        this.budget = budget;
+        this.events = events;
+        this.metrics = metrics;
 
-    private final String baseUrl;
-    private final String apiKey;
-    private final String modelName;
-
-    @Getter(lazy = true)
-    private final OpenAiChatModel chatModel = newLLM();
-
-    public DiagramCorrectionProcess(String baseUrl, String apiKey, String modelName) {
-        this.baseUrl = baseUrl;
-        this.apiKey = apiKey;
-        this.modelName = modelName;
-    }
-
-    @Override
-    public AsyncGenerator<NodeOutput<State>> execute(Map<String, Object> inputs) throws Exception {
         var workflow = new StateGraph<>(State::new);
 
-        workflow.addNode(EVALUATE_RESULT, this::evaluateResult);
-        workflow.addNode(AGENT_REVIEW, this::reviewResult);
+        workflow.addNode(EVALUATE_RESULT, metrics.timed(GRAPH, EVALUATE_RESULT, this::evaluateResult));
+        workflow.addNode(LOCAL_REPAIR, metrics.timed(GRAPH, LOCAL_REPAIR, executors.cpuNode(this::repairResult)));
+        workflow.addNode(AGENT_REVIEW, metrics.timed(GRAPH, AGENT_REVIEW, executors.ioNode(this::reviewResult)));
         workflow.addEdge(AGENT_REVIEW, EVALUATE_RESULT);
         workflow.addConditionalEdges(
                 EVALUATE_RESULT,
                 edge_async(this::routeEvaluationResult),
-                mapOf("OK", END, "ERROR", AGENT_REVIEW, "UNKNOWN", END)
+                mapOf("OK", END, "ERROR", LOCAL_REPAIR, "UNKNOWN", END)
+        );
+        workflow.addConditionalEdges(
+                LOCAL_REPAIR,
+                edge_async(this::routeRepairResult),
+                mapOf("OK", END, "ERROR", AGENT_REVIEW)
         );
         workflow.setEntryPoint(EVALUATE_RESULT);
 
-        var app = workflow.compile();
+        this.app = workflow.compile();
+    }
 
+    @Override
+    public AsyncGenerator<NodeOutput<State>> execute(Map<String, Object> inputs) throws Exception {
         return app.stream(inputs);
     }
 
-    private CompletableFuture<Map<String,Object>> reviewResult(State state) {
-        CompletableFuture<Map<String,Object>> future = new CompletableFuture<>();
+    private Map<String,Object> reviewResult(State state) throws Exception {
+        var diagramCode = last(state.diagramCode())
+                .orElseThrow(() -> new IllegalArgumentException("no diagram code provided!"));
+
+        var error = state.evaluationError()
+                .orElseThrow(() -> new IllegalArgumentException("no evaluation error provided!"));
 
-        try {
-            var diagramCode = last(state.diagramCode())
-                    .orElseThrow(() -> new IllegalArgumentException("no diagram code provided!"));
+        Prompt systemPrompt = loadPromptTemplate("review_diagram.txt")
+                .apply(mapOf("evaluationError", error, "diagramCode", diagramCode));
+        var response = llm.chatModel(AGENT_REVIEW, state.priority())
+                .generate(List.of(new SystemMessage(systemPrompt.text())), events.tokens(state, AGENT_REVIEW));
 
-            var error = state.evaluationError()
-                    .orElseThrow(() -> new IllegalArgumentException("no evaluation error provided!"));
+        var diagramCodes = new ArrayList<>(state.diagramCode());
+        diagramCodes.add(response.content().text());
 
-            Prompt systemPrompt = loadPromptTemplate("review_diagram.txt")
-                    .apply(mapOf("evaluationError", error, "diagramCode", diagramCode));
-            var response = getChatModel().generate(new SystemMessage(systemPrompt.text()));
+        return mapOf("diagramCode", diagramCodes,
+                "reviews", state.reviews() + 1,
+                "tokens", tokensAfter(state, response));
+    }
 
-            future.complete(mapOf("diagramCode", response.content().text()));
-        } catch (Exception e) {
-            future.completeExceptionally(e);
+    /**
+     * Tries the mechanical fixes first, so the LLM review only sees scripts that are still broken.
+     */
+    private Map<String,Object> repairResult(State state) {
+        var diagramCode = last(state.diagramCode())
+                .orElseThrow(() -> new IllegalArgumentException("no diagram code provided!"));
+        var error = new PlantUMLAction.Error(
+                state.evaluationError().orElseThrow(() -> new IllegalArgumentException("no evaluation error provided!")),
+                state.evaluationErrorType().orElse(ErrorUmlType.SYNTAX_ERROR),
+                state.evaluationErrorLine());
+
+        var result = repairChain.repair(diagramCode, error);
+        if (!result.isChanged()) {
+            return mapOf();
+        }
+
+        var diagramCodes = new ArrayList<>(state.diagramCode());
+        diagramCodes.add(result.fixed());
+
+        if (result.isResolved()) {
+            metrics.correctionResolved("local");
+            log.info("correction resolved locally by {}", result.applied());
+            return mapOf("diagramCode", diagramCodes, "evaluationResult", EvaluationResult.OK);
         }
 
-        return future;
+        var remaining = result.remainingError().orElseThrow();
+        return Map.of("diagramCode", diagramCodes,
+                "evaluationError", remaining.getMessage(),
+                "evaluationErrorType", remaining.getType(),
+                "evaluationErrorLine", remaining.getLine());
     }
 
     private CompletableFuture<Map<String,Object>> evaluateResult(State state) {
         var diagramCode = last(state.diagramCode())
                 .orElseThrow(() -> new IllegalArgumentException("no diagram code provided!"));
 
-        return PlantUMLAction.validate(diagramCode)
+        return validator.validate(diagramCode)
                 .thenApply(v -> mapOf("evaluationResult", (Object) EvaluationResult.OK))
                 .exceptionally(e -> {
                     if (e.getCause() instanceof PlantUMLAction.Error error) {
-                        return mapOf("evaluationResult", EvaluationResult.ERROR,
+                        return Map.<String,Object>of("evaluationResult", EvaluationResult.ERROR,
                                 "evaluationError", error.getMessage(),
-                                "evaluationErrorType", error.getType());
+                                "evaluationErrorType", error.getType(),
+                                "evaluationErrorLine", error.getLine());
                     }
                     throw new InvalidDataException(e);
                 });
@@ -96,34 +149,60 @@ public class DiagramCorrectionProcess implements ImageToDiagram {
     }
 
     private String routeEvaluationResult(State state) {
+        var route = evaluationRoute(state);
+
+        metrics.evaluation(route);
+        if (route != EvaluationResult.ERROR) {
+            metrics.correctionFinished(route, state.reviews());
+        }
+
+        return route.name();
+    }
+
+    private EvaluationResult evaluationRoute(State state) {
         var evaluationResult = state.evaluationResult()
                 .orElseThrow(() -> new IllegalArgumentException("no evaluationResult provided!"));
 
         if (evaluationResult == EvaluationResult.ERROR) {
             if (state.isExecutionError()) {
                 log.warn("evaluation execution error: [{}]", state.evaluationError().orElse("unknown"));
-                return EvaluationResult.UNKNOWN.name();
+                metrics.correctionResolved("none");
+                return EvaluationResult.UNKNOWN;
+            }
+            if (state.isRepeatedDiagram()) {
+                metrics.correctionResolved("none");
+                metrics.correctionStopped("cycle");
+                log.warn("correction failed, the review repeated an earlier diagram");
+                return EvaluationResult.UNKNOWN;
             }
-            if (state.lastTwoDiagramsAreEqual()) {
-                log.warn("correction failed! ");
-                return EvaluationResult.UNKNOWN.name();
+            var exhausted = budget.exhausted(state);
+            if (exhausted.isPresent()) {
+                metrics.correctionResolved("none");
+                metrics.correctionStopped(exhausted.get());
+                log.warn("correction stopped, {} budget exhausted after {} review(s) and {} tokens, returning the "
+                        + "last diagram with error [{}]", exhausted.get(), state.reviews(), state.tokens(),
+                        state.evaluationError().orElse("unknown"));
+                return EvaluationResult.UNKNOWN;
             }
         }
 
-        return evaluationResult.name();
+        if (evaluationResult == EvaluationResult.OK && state.reviews() > 0) {
+            metrics.correctionResolved("llm");
+            log.info("correction resolved by the LLM after {} review(s)", state.reviews());
+        }
+
+        return evaluationResult;
     }
 
-    private OpenAiChatModel newLLM() {
-        return OpenAiChatModel.builder()
-                .baseUrl(baseUrl)
-                .apiKey(apiKey)
-                .modelName(modelName)
-                .timeout(Duration.ofMinutes(2))
-                .logRequests(true)
-                .logResponses(true)
-                .maxRetries(2)
-                .temperature(0.0)
-                .maxTokens(2000)
-                .build();
+    private String routeRepairResult(State state) {
+        var route = state.evaluationResult()
+                .filter(result -> result == EvaluationResult.OK)
+                .orElse(EvaluationResult.ERROR);
+
+        if (route == EvaluationResult.OK) {
+            metrics.correctionFinished(route, state.reviews());
+        }
+
+        return route.name();
     }
 }
@@ -0,0 +1,158 @@
+package com.diagram.ai.core;
+
+import java.util.*;
+
+/**
+ * Splits a large {@link Diagram.Element} into parts small enough to be translated to PlantUML independently.
+ * <p>
+ * Every top level container forms a group with everything nested in it. Participants outside containers are grouped
+ * by the connected components of the relations among them; a relation toward a container does not pull a free
+ * participant into it. Groups are then packed in order of first appearance into parts of at most
+ * {@code maxPartSize} participants, a group is never split. Relations inside a part stay in it, the others are
+ * returned as cross relations for the merge. Title and description steps belong to the whole diagram and are left
+ * out of the parts.
+ */
+public class DiagramPartitioner {
+
+    /**
+     * @param crossRelations relations whose ends are in different parts, in their original order
+     */
+    public record Partition(List<Diagram.Element> parts, List<Diagram.Relation> crossRelations) {}
+
+    private DiagramPartitioner() {}
+
+    public static Partition partition(Diagram.Element diagram, int maxPartSize) {
+        var participants = Optional.ofNullable(diagram.getParticipants()).orElseGet(List::of);
+        var relations = Optional.ofNullable(diagram.getRelations()).orElseGet(List::of);
+        var containers = Optional.ofNullable(diagram.getContainers()).orElseGet(List::of);
+
+        var sets = new DisjointSets();
+        var containersByName = new LinkedHashMap<String, Diagram.Container>();
+        containers.stream()
+                .filter(container -> container.getName() != null)
+                .forEach(container -> containersByName.putIfAbsent(container.getName(), container));
+
+        var contained = new HashSet<String>();
+        for (var container : containersByName.values()) {
+            sets.add(container.getName());
+            for (var child : Optional.ofNullable(container.getChildren()).orElseGet(List::of)) {
+                if (child != null) {
+                    sets.union(container.getName(), child);
+                    contained.add(child);
+                }
+            }
+        }
+        for (var participant : participants) {
+            if (participant.getName() != null) {
+                sets.add(participant.getName());
+            }
+        }
+        for (var relation : relations) {
+            if (relation.getSource() == null || relation.getTarget() == null) {
+                continue;
+            }
+            sets.add(relation.getSource());
+            sets.add(relation.getTarget());
+            if (!inContainer(relation.getSource(), containersByName, contained)
+                    && !inContainer(relation.getTarget(), containersByName, contained)) {
+                sets.union(relation.getSource(), relation.getTarget());
+            }
+        }
+
+        // groups in order of first appearance, sized by their participants
+        var groupSizes = new LinkedHashMap<String, Integer>();
+        for (var name : sets.names()) {
+            groupSizes.merge(sets.find(name), containersByName.containsKey(name) ? 0 : 1, Integer::sum);
+        }
+
+        var partOfGroup = new HashMap<String, Integer>();
+        int part = -1;
+        int size = 0;
+        for (var group : groupSizes.entrySet()) {
+            if (part < 0 || (size > 0 && size + group.getValue() > maxPartSize)) {
+                part++;
+                size = 0;
+            }
+            partOfGroup.put(group.getKey(), part);
+            size += group.getValue();
+        }
+
+        var parts = new ArrayList<Diagram.Element>();
+        for (int i = 0; i <= part; i++) {
+            var element = new Diagram.Element();
+            element.setType(diagram.getType());
+            element.setParticipants(new ArrayList<>());
+            element.setRelations(new ArrayList<>());
+            element.setContainers(new ArrayList<>());
+            parts.add(element);
+        }
+
+        for (var participant : participants) {
+            if (participant.getName() != null) {
+                parts.get(partOfGroup.get(sets.find(participant.getName()))).getParticipants().add(participant);
+            }
+        }
+        for (var container : containersByName.values()) {
+            parts.get(partOfGroup.get(sets.find(container.getName()))).getContainers().add(container);
+        }
+        var crossRelations = new ArrayList<Diagram.Relation>();
+        for (var relation : relations) {
+            if (relation.getSource() == null || relation.getTarget() == null) {
+                continue;
+            }
+            int source = partOfGroup.get(sets.find(relation.getSource()));
+            if (source == partOfGroup.get(sets.find(relation.getTarget()))) {
+                parts.get(source).getRelations().add(relation);
+            } else {
+                crossRelations.add(relation);
+            }
+        }
+
+        return new Partition(parts, crossRelations);
+    }
+
+    private static boolean inContainer(String name, Map<String, Diagram.Container> containers, Set<String> contained) {
+        return containers.containsKey(name) || contained.contains(name);
+    }
+
+    /**
+     * Union-find over names with path halving, the first name added to a set stays its root so the order of the
+     * groups follows the diagram.
+     */
+    private static class DisjointSets {
+        private final Map<String, String> parents = new LinkedHashMap<>();
+        private final Map<String, Integer> order = new HashMap<>();
+
+        void add(String name) {
+            if (parents.putIfAbsent(name, name) == null) {
+                order.put(name, order.size());
+            }
+        }
+
+        Set<String> names() {
+            return parents.keySet();
+        }
+
+        String find(String name) {
+            var current = name;
+            while (!parents.get(current).equals(current)) {
+                var parent = parents.get(current);
+                parents.put(current, parents.get(parent));
+                current = parent;
+            }
+            return current;
+        }
+
+        void union(String first, String second) {
+            add(first);
+            add(second);
+            var a = find(first);
+            var b = find(second);
+            if (order.get(a) < order.get(b)) {
+                parents.put(b, a);
+            } else if (order.get(b) < order.get(a)) {
+                parents.put(a, b);
+            }
+        }
+    }
+}
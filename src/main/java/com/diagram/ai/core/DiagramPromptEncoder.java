@@ -0,0 +1,113 @@
+package com.diagram.ai.core;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Writes a {@link Diagram.Element} into prompts as a small line oriented DSL, a fraction of the tokens of its JSON
+ * or {@code toString()} form. Empty values are left out.
+ * <pre>
+ * type: process
+ * title: Order processing
+ * participant Customer [stickman]: places orders
+ * participant "Web Shop" [cloud]: public storefront
+ * relation Customer -> "Web Shop": orders
+ * container Backend {"Web Shop", Orders}
+ * - A customer orders through the web shop
+ * </pre>
+ * Parts of a partitioned diagram also carry the alias each participant and container must be declared with, as in
+ * {@code participant "Web Shop" as webShop2 [cloud]}.
+ */
+public final class DiagramPromptEncoder {
+    private static final Pattern PLAIN_NAME = Pattern.compile("[\\p{L}\\p{N}_.]+");
+
+    private DiagramPromptEncoder() {}
+
+    public static String encode(Diagram.Element diagram) {
+        return encode(diagram, null);
+    }
+
+    /**
+     * @param aliases alias of each declared name, null to leave the aliases to the LLM
+     */
+    public static String encode(Diagram.Element diagram, Function<String, String> aliases) {
+        var out = new StringBuilder(256);
+        field(out, "type", diagram.getType());
+        field(out, "title", diagram.getTitle());
+
+        for (var participant : nonNull(diagram.getParticipants())) {
+            out.append("participant ").append(name(participant.getName()));
+            alias(out, participant.getName(), aliases);
+            if (!isBlank(participant.getShape())) {
+                out.append(" [").append(participant.getShape().strip()).append(']');
+            }
+            description(out, participant.getDescription());
+        }
+        for (var relation : nonNull(diagram.getRelations())) {
+            out.append("relation ").append(name(relation.getSource())).append(" -> ").append(name(relation.getTarget()));
+            description(out, relation.getDescription());
+        }
+        for (var container : nonNull(diagram.getContainers())) {
+            out.append("container ").append(name(container.getName()));
+            alias(out, container.getName(), aliases);
+            var children = nonNull(container.getChildren());
+            if (!children.isEmpty()) {
+                out.append(" {");
+                for (int i = 0; i < children.size(); i++) {
+                    out.append(i > 0 ? ", " : "").append(name(children.get(i)));
+                }
+                out.append('}');
+            }
+            description(out, container.getDescription());
+        }
+        for (var step : nonNull(diagram.getDescription())) {
+            if (!isBlank(step)) {
+                out.append("- ").append(singleLine(step)).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static void alias(StringBuilder out, String name, Function<String, String> aliases) {
+        if (aliases != null && !isBlank(name)) {
+            out.append(" as ").append(aliases.apply(name));
+        }
+    }
+
+    private static void field(StringBuilder out, String key, String value) {
+        if (!isBlank(value)) {
+            out.append(key).append(": ").append(singleLine(value)).append('\n');
+        }
+    }
+
+    private static void description(StringBuilder out, String description) {
+        if (!isBlank(description)) {
+            out.append(": ").append(singleLine(description));
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Names are quoted only when they would not read as one word.
+     */
+    private static String name(String name) {
+        if (isBlank(name)) {
+            return "\"\"";
+        }
+        var stripped = singleLine(name);
+        return PLAIN_NAME.matcher(stripped).matches() ? stripped : '"' + stripped.replace("\"", "'") + '"';
+    }
+
+    private static String singleLine(String value) {
+        return value.strip().replaceAll("\\s*\\R\\s*", " ");
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static <T> List<T> nonNull(List<T> list) {
+        return list == null ? List.of() : list;
+    }
+}
@@ -0,0 +1,245 @@
+package com.diagram.ai.core;
+
+import com.diagram.ai.exceptions.BadRequestException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shrinks uploads before they are sent to the vision model: crops the surrounding whitespace, downscales to a
+ * maximum resolution and re-encodes as PNG with the smallest lossless color model, gray or palette.
+ * <p>
+ * A small file can declare a huge image, so the dimensions are read from the header first and images above
+ * {@code maxPixels} are rejected. Large images are subsampled while decoding, down to twice the maximum
+ * resolution, which leaves room for the crop and a smooth final downscale.
+ */
+@Slf4j(topic = "ImagePreprocessor")
+public class ImagePreprocessor {
+    private static final int BACKGROUND_TOLERANCE = 8;
+    private static final int MARGIN = 8;
+    private static final int MAX_PALETTE = 256;
+
+    private final boolean enabled;
+    private final int maxDimension;
+    private final long maxPixels;
+
+    public record PreparedImage(byte[] data, String mimeType) {}
+
+    public ImagePreprocessor(boolean enabled, int maxDimension, long maxPixels) {
+        this.enabled = enabled;
+        this.maxDimension = maxDimension;
+        this.maxPixels = maxPixels;
+    }
+
+    public PreparedImage prepare(byte[] image) {
+        var mimeType = detectMimeType(image);
+
+        int width;
+        int height;
+        BufferedImage source;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                log.debug("{} cannot be decoded, sent as is", mimeType);
+                return new PreparedImage(image, mimeType);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new BadRequestException("image of %dx%d pixels is too large, the limit is %d pixels"
+                            .formatted(width, height, maxPixels));
+                }
+                if (!enabled) {
+                    return new PreparedImage(image, mimeType);
+                }
+
+                var param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (2 * maxDimension));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                source = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            log.debug("{} cannot be decoded, sent as is", mimeType);
+            return new PreparedImage(image, mimeType);
+        }
+
+        var cropped = cropWhitespace(source);
+        var scaled = downscale(cropped);
+        var reduced = reduceColors(scaled);
+
+        byte[] encoded;
+        try (var output = new ByteArrayOutputStream()) {
+            ImageIO.write(reduced, "png", output);
+            encoded = output.toByteArray();
+        } catch (IOException e) {
+            log.warn("unable to re-encode image, sent as is", e);
+            return new PreparedImage(image, mimeType);
+        }
+
+        boolean resized = scaled.getWidth() != width || scaled.getHeight() != height;
+        if (!resized && encoded.length >= image.length) {
+            log.info("image {} {}x{} {} bytes kept as is", mimeType, width, height, image.length);
+            return new PreparedImage(image, mimeType);
+        }
+
+        log.info("image {} {}x{} {} bytes -> image/png {}x{} {} bytes",
+                mimeType, width, height, image.length,
+                reduced.getWidth(), reduced.getHeight(), encoded.length);
+        return new PreparedImage(encoded, "image/png");
+    }
+
+    static String detectMimeType(byte[] image) {
+        if (startsWith(image, 0, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(image, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(image, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(image, 0, 'R', 'I', 'F', 'F') && startsWith(image, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(image, 0, 'B', 'M')) {
+            return "image/bmp";
+        }
+        return "image/png";
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... magic) {
+        if (data.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private BufferedImage cropWhitespace(BufferedImage image) {
+        int background = image.getRGB(0, 0);
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        int top = height, left = width, bottom = -1, right = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (!isBackground(image.getRGB(x, y), background)) {
+                    top = Math.min(top, y);
+                    bottom = Math.max(bottom, y);
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                }
+            }
+        }
+
+        if (bottom < 0) {
+            return image;
+        }
+
+        top = Math.max(0, top - MARGIN);
+        left = Math.max(0, left - MARGIN);
+        bottom = Math.min(height - 1, bottom + MARGIN);
+        right = Math.min(width - 1, right + MARGIN);
+
+        if (top == 0 && left == 0 && bottom == height - 1 && right == width - 1) {
+            return image;
+        }
+        return image.getSubimage(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    private static boolean isBackground(int argb, int background) {
+        return Math.abs(((argb >> 24) & 0xFF) - ((background >> 24) & 0xFF)) <= BACKGROUND_TOLERANCE
+                && Math.abs(((argb >> 16) & 0xFF) - ((background >> 16) & 0xFF)) <= BACKGROUND_TOLERANCE
+                && Math.abs(((argb >> 8) & 0xFF) - ((background >> 8) & 0xFF)) <= BACKGROUND_TOLERANCE
+                && Math.abs((argb & 0xFF) - (background & 0xFF)) <= BACKGROUND_TOLERANCE;
+    }
+
+    /**
+     * Scales down to {@code maxDimension} and flattens transparency onto white.
+     */
+    private BufferedImage downscale(BufferedImage image) {
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        var result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var graphics = result.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Converts to 8 bit gray or to an indexed palette when that loses no information.
+     */
+    private static BufferedImage reduceColors(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        boolean gray = true;
+        Map<Integer, Integer> palette = new HashMap<>();
+        for (int pixel : pixels) {
+            int rgb = pixel & 0xFFFFFF;
+            int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+            gray &= r == g && g == b;
+            if (palette.size() <= MAX_PALETTE) {
+                palette.putIfAbsent(rgb, palette.size());
+            }
+            if (!gray && palette.size() > MAX_PALETTE) {
+                return image;
+            }
+        }
+
+        if (gray) {
+            var result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            var raster = result.getRaster();
+            for (int i = 0; i < pixels.length; i++) {
+                raster.setSample(i % width, i / width, 0, pixels[i] & 0xFF);
+            }
+            return result;
+        }
+
+        byte[] reds = new byte[palette.size()], greens = new byte[palette.size()], blues = new byte[palette.size()];
+        palette.forEach((rgb, index) -> {
+            reds[index] = (byte) (rgb >> 16);
+            greens[index] = (byte) (rgb >> 8);
+            blues[index] = rgb.byteValue();
+        });
+        int bits = palette.size() <= 2 ? 1 : palette.size() <= 4 ? 2 : palette.size() <= 16 ? 4 : 8;
+        var colorModel = new IndexColorModel(bits, palette.size(), reds, greens, blues);
+        var result = new BufferedImage(width, height,
+                bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY, colorModel);
+        var raster = result.getRaster();
+        for (int i = 0; i < pixels.length; i++) {
+            raster.setSample(i % width, i / width, 0, palette.get(pixels[i] & 0xFFFFFF));
+        }
+        return result;
+    }
+}
@@ -1,7 +1,9 @@
 package com.diagram.ai.core;
 
+import com.diagram.ai.llm.LlmPriority;
+import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.model.input.PromptTemplate;
-import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.output.Response;
 import net.sourceforge.plantuml.ErrorUmlType;
 import org.bsc.async.AsyncGenerator;
 import org.bsc.langgraph4j.NodeOutput;
@@ -10,16 +12,51 @@ import org.bsc.langgraph4j.state.AgentState;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static org.bsc.langgraph4j.utils.CollectionsUtils.*;
 
 public interface ImageToDiagram {
     class State extends AgentState {
+        private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+        private static final HexFormat HEX = HexFormat.of();
+
         public State(Map<String, Object> initData) {
             super(initData);
         }
 
+        public Optional<String> requestId() {
+            return value("requestId");
+        }
+
+        public LlmPriority priority() {
+            return this.<String>value("priority").map(LlmPriority::valueOf).orElse(LlmPriority.INTERACTIVE);
+        }
+
+        /**
+         * @return the last node completed by an earlier attempt of this conversion, see {@link ToDiagramProcess}
+         */
+        public Optional<String> resumeAfter() {
+            return value("resumeAfter");
+        }
+
+        public Optional<String> imageData() {
+            return value("imageData");
+        }
+
+        public Optional<String> imageMimeType() {
+            return value("imageMimeType");
+        }
+
+        public boolean isImage() {
+            return this.<Boolean>value("isImage").orElse(false);
+        }
+
         public Optional<Diagram.Element> diagram() {
             return value("diagram");
         }
@@ -40,25 +77,62 @@ public interface ImageToDiagram {
             return value("evaluationErrorType");
         }
 
+        public int evaluationErrorLine() {
+            return this.<Integer>value("evaluationErrorLine").orElse(-1);
+        }
+
+        public int reviews() {
+            return this.<Integer>value("reviews").orElse(0);
+        }
+
+        /**
+         * @return tokens spent on LLM calls by this request so far
+         */
+        public int tokens() {
+            return this.<Integer>value("tokens").orElse(0);
+        }
+
+        /**
+         * @return epoch millis at which the request started, if the caller set it
+         */
+        public Optional<Long> startedAt() {
+            return value("startedAt");
+        }
+
         public boolean isExecutionError() {
             return evaluationErrorType()
                     .map(type -> type == ErrorUmlType.EXECUTION_ERROR)
                     .orElse(false);
         }
 
-        public boolean lastTwoDiagramsAreEqual() {
-            if (diagramCode().size() < 2) {
+        /**
+         * @return true if the last diagram code is, whitespace aside, one of the earlier ones, so the correction
+         * loop is going in circles
+         */
+        public boolean isRepeatedDiagram() {
+            var codes = diagramCode();
+            if (codes.size() < 2) {
                 return false;
             }
 
-            String last = last(diagramCode())
-                    .map(String::trim)
-                    .orElseThrow(() -> new IllegalStateException("last() is null!"));
-            String prev = lastMinus(diagramCode(), 1)
-                    .map(String::trim)
-                    .orElseThrow(() -> new IllegalStateException("last(-1) is null!"));
+            var seen = new HashSet<String>();
+            for (var code : codes.subList(0, codes.size() - 1)) {
+                seen.add(normalizedHash(code));
+            }
+            return seen.contains(normalizedHash(codes.getLast()));
+        }
 
-            return last.equals(prev);
+        private static String normalizedHash(String code) {
+            var normalized = code.lines()
+                    .map(line -> WHITESPACE.matcher(line.strip()).replaceAll(" "))
+                    .filter(line -> !line.isEmpty())
+                    .collect(Collectors.joining("\n"));
+            try {
+                var digest = MessageDigest.getInstance("SHA-256");
+                return HEX.formatHex(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
         }
     }
 
@@ -68,7 +142,28 @@ public interface ImageToDiagram {
         UNKNOWN
     }
 
-    OpenAiChatModel getChatModel();
+    /**
+     * @return the request's token count after {@code response}, to be stored under {@code tokens}
+     */
+    default int tokensAfter(State state, Response<AiMessage> response) {
+        return addTokens(state.tokens(), tokensSpent(response));
+    }
+
+    /**
+     * @return the tokens {@code response} cost; missing usage is estimated by the chat model unless
+     * {@code ai.estimate-missing-usage} is off, then such a response counts as the whole token budget
+     */
+    static int tokensSpent(Response<AiMessage> response) {
+        var usage = response.tokenUsage();
+        return usage != null && usage.totalTokenCount() != null ? usage.totalTokenCount() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Saturating sum, unknown usage must not overflow into a negative count.
+     */
+    static int addTokens(int tokens, int spent) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) tokens + spent);
+    }
 
     default PromptTemplate loadPromptTemplate(String resourceName) throws Exception {
         final ClassLoader classLoader = getClass().getClassLoader();
@@ -0,0 +1,62 @@
+package com.diagram.ai.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bsc.langgraph4j.NodeOutput;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Routes node outputs produced inside nested graphs, and the tokens streamed by the LLM nodes, back to the caller of
+ * the request they belong to. Listeners are keyed by the {@code requestId} carried in {@link ImageToDiagram.State}.
+ */
+@Slf4j(topic = "PipelineEvents")
+public class PipelineEvents {
+    private final Map<String, Consumer<NodeOutput<ImageToDiagram.State>>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, BiConsumer<String, String>> tokenListeners = new ConcurrentHashMap<>();
+
+    public void register(String requestId, Consumer<NodeOutput<ImageToDiagram.State>> listener) {
+        listeners.put(requestId, listener);
+    }
+
+    /**
+     * @param tokens receives the node name and the token, for every token an LLM node streams
+     */
+    public void registerTokens(String requestId, BiConsumer<String, String> tokens) {
+        tokenListeners.put(requestId, tokens);
+    }
+
+    public void unregister(String requestId) {
+        listeners.remove(requestId);
+        tokenListeners.remove(requestId);
+    }
+
+    /**
+     * @return the sink for the tokens {@code node} streams while it serves the request of {@code state}
+     */
+    public Consumer<String> tokens(ImageToDiagram.State state, String node) {
+        return token -> state.requestId()
+                .map(tokenListeners::get)
+                .ifPresent(listener -> {
+                    try {
+                        listener.accept(node, token);
+                    } catch (Exception e) {
+                        log.warn("token listener failed", e);
+                    }
+                });
+    }
+
+    public void publish(ImageToDiagram.State state, NodeOutput<ImageToDiagram.State> output) {
+        state.requestId()
+                .map(listeners::get)
+                .ifPresent(listener -> {
+                    try {
+                        listener.accept(output);
+                    } catch (Exception e) {
+                        log.warn("pipeline listener failed", e);
+                    }
+                });
+    }
+}
@@ -0,0 +1,117 @@
+package com.diagram.ai.core;
+
+import org.bsc.langgraph4j.action.AsyncNodeAction;
+import org.bsc.langgraph4j.action.NodeAction;
+import org.bsc.langgraph4j.state.AgentState;
+import org.slf4j.MDC;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Execution model of the pipeline: blocking LLM I/O runs on virtual threads, CPU bound PlantUML parsing
+ * and rendering on a bounded pool of platform threads sized to the cores.
+ */
+public class PipelineExecutors implements AutoCloseable {
+    /**
+     * MDC key of the request id while a node runs, so log lines of one request can be correlated.
+     */
+    public static final String TRACE_ID = "traceId";
+
+    private final ExecutorService io;
+    private final ExecutorService cpu;
+
+    public PipelineExecutors(int cpuThreads) {
+        this.io = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("llm-", 0).factory());
+        this.cpu = Executors.newFixedThreadPool(
+                cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors(),
+                Thread.ofPlatform().name("plantuml-", 0).daemon().factory());
+    }
+
+    public Executor io() {
+        return io;
+    }
+
+    public Executor cpu() {
+        return cpu;
+    }
+
+    public <T> CompletableFuture<T> io(Callable<T> task) {
+        return call(task, io);
+    }
+
+    public <T> CompletableFuture<T> cpu(Callable<T> task) {
+        return call(task, cpu);
+    }
+
+    /**
+     * Like {@link #io(Callable)}, but cancelling the returned future also interrupts the task, which gives up a
+     * pending LLM call.
+     */
+    public <T> CompletableFuture<T> cancellableIo(Callable<T> task) {
+        var future = new CompletableFuture<T>();
+        var running = io.submit(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Graph node whose body blocks on I/O, typically an LLM call.
+     */
+    public <S extends AgentState> AsyncNodeAction<S> ioNode(NodeAction<S> action) {
+        return state -> io(traced(state, () -> action.apply(state)));
+    }
+
+    /**
+     * Graph node whose body is CPU bound, typically PlantUML parsing.
+     */
+    public <S extends AgentState> AsyncNodeAction<S> cpuNode(NodeAction<S> action) {
+        return state -> cpu(traced(state, () -> action.apply(state)));
+    }
+
+    private static <T> Callable<T> traced(AgentState state, Callable<T> task) {
+        var traceId = state.data().get("requestId");
+        if (traceId == null) {
+            return task;
+        }
+        return () -> {
+            MDC.put(TRACE_ID, traceId.toString());
+            try {
+                return task.call();
+            } finally {
+                MDC.remove(TRACE_ID);
+            }
+        };
+    }
+
+    private static <T> CompletableFuture<T> call(Callable<T> task, Executor executor) {
+        var future = new CompletableFuture<T>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        io.shutdownNow();
+        cpu.shutdownNow();
+    }
+}
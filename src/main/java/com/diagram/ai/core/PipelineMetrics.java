@@ -0,0 +1,136 @@
+package com.diagram.ai.core;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bsc.langgraph4j.action.AsyncNodeAction;
+import org.bsc.langgraph4j.state.AgentState;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the pipeline. Tags are kept to bounded sets (graph, node, outcome), request ids go to the
+ * logs, never to the meters.
+ */
+public class PipelineMetrics {
+    private final MeterRegistry registry;
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Times {@code action} from the call until its future completes, queueing on the executors included.
+     */
+    public <S extends AgentState> AsyncNodeAction<S> timed(String graph, String node, AsyncNodeAction<S> action) {
+        return state -> {
+            var sample = Timer.start(registry);
+            return action.apply(state).whenComplete((result, e) -> sample.stop(Timer.builder("diagram.node")
+                    .description("Duration of a graph node")
+                    .tag("graph", graph)
+                    .tag("node", node)
+                    .tag("outcome", e == null ? "success" : "error")
+                    .register(registry)));
+        };
+    }
+
+    /**
+     * @param result route taken after {@code evaluate_result}, OK, ERROR or UNKNOWN
+     */
+    public void evaluation(ImageToDiagram.EvaluationResult result) {
+        Counter.builder("diagram.evaluation")
+                .description("Outcomes of the PlantUML evaluation routing")
+                .tag("result", result.name())
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param reviews LLM reviews needed by a finished correction loop
+     */
+    public void correctionFinished(ImageToDiagram.EvaluationResult result, int reviews) {
+        DistributionSummary.builder("diagram.correction.iterations")
+                .description("LLM reviews per correction loop")
+                .tag("result", result.name())
+                .register(registry)
+                .record(reviews);
+    }
+
+    /**
+     * @param by who corrected an invalid script: {@code local} for the repair chain, {@code llm} for the review, or
+     *           {@code none} when the correction loop gave up
+     */
+    public void correctionResolved(String by) {
+        Counter.builder("diagram.correction.resolved")
+                .description("Invalid PlantUML scripts by who corrected them")
+                .tag("by", by)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param reason why a correction loop gave up before the diagram was valid: cycle, reviews, tokens or duration
+     */
+    public void correctionStopped(String reason) {
+        Counter.builder("diagram.correction.stopped")
+                .description("Correction loops stopped before the diagram was valid")
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param invalid parts whose PlantUML did not validate before the merge
+     */
+    public void partitioned(int parts, int invalid) {
+        DistributionSummary.builder("diagram.partition.parts")
+                .description("Parts translated separately per partitioned diagram")
+                .register(registry)
+                .record(parts);
+        Counter.builder("diagram.partition.invalid")
+                .description("Parts of partitioned diagrams merged with invalid PlantUML")
+                .register(registry)
+                .increment(invalid);
+    }
+
+    /**
+     * @param outcome of a speculative generation: {@code first} when the candidate with the node's own settings won,
+     *                {@code saved} when another one won after the first turned out invalid, which is a correction
+     *                round saved, {@code faster} when another one won before the first was known, {@code none_valid}
+     *                when the correction loop had to take over
+     * @param winner  index of the winning candidate, -1 if none was valid
+     */
+    public void speculation(String outcome, int winner) {
+        Counter.builder("diagram.speculation")
+                .description("Speculative PlantUML generations by outcome")
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+        if (winner >= 0) {
+            DistributionSummary.builder("diagram.speculation.winner")
+                    .description("Index of the first valid speculative candidate")
+                    .register(registry)
+                    .record(winner);
+        }
+    }
+
+    /**
+     * @param verdict valid, invalid or timeout
+     */
+    public void validation(String verdict, long nanos) {
+        Timer.builder("diagram.plantuml.validation")
+                .description("PlantUML parse time")
+                .tag("verdict", verdict)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void validationCache(boolean hit) {
+        Counter.builder("diagram.plantuml.validation.cache")
+                .description("PlantUML verdicts answered from memory")
+                .tag("result", hit ? "hit" : "miss")
+                .register(registry)
+                .increment();
+    }
+}
@@ -17,10 +17,31 @@ public class PlantUMLAction {
     @Getter
     public static class Error extends Exception {
         private final ErrorUmlType type;
+        /**
+         * zero based line of the error inside the {@code @startuml} block, -1 if unknown
+         */
+        private final int line;
 
         public Error(String message, ErrorUmlType type) {
+            this(message, type, -1);
+        }
+
+        public Error(String message, ErrorUmlType type, int line) {
             super(message);
             this.type = type;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Renders the first diagram of {@code code}, invalid code renders as PlantUML's error image.
+     */
+    public static byte[] render(String code, FileFormat format) throws IOException {
+        SourceStringReader reader = new SourceStringReader(code);
+
+        try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            reader.outputImage(output, 0, new FileFormatOption(format));
+            return output.toByteArray();
         }
     }
 
@@ -31,7 +52,8 @@ public class PlantUMLAction {
 
         final List<BlockUml> blocks = reader.getBlocks();
         if (blocks.size() != 1) {
-            result.completeExceptionally(new IllegalArgumentException("Invalid PlantUML code"));
+            result.completeExceptionally(new Error("Invalid PlantUML code: expected exactly one @startuml/@enduml block",
+                    ErrorUmlType.SYNTAX_ERROR));
             return result;
         }
 
@@ -39,10 +61,11 @@ public class PlantUMLAction {
 
         if (system instanceof PSystemError error) {
             ErrorUml err = error.getFirstError();
+            int line = err.getLineLocation() != null ? err.getLineLocation().getPosition() : -1;
 
             try (ByteArrayOutputStream png = new ByteArrayOutputStream()) {
                 reader.outputImage(png, 0, new FileFormatOption(FileFormat.UTXT));
-                result.completeExceptionally(new Error(png.toString(), err.getType()));
+                result.completeExceptionally(new Error(png.toString(), err.getType(), line));
             } catch (IOException e) {
                 result.completeExceptionally(e);
             }
@@ -0,0 +1,380 @@
+package com.diagram.ai.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic translation of a {@link Diagram.Element} into a PlantUML script.
+ * <p>
+ * Applies the same rules as {@code convert_generic_diagram_to_plantuml.txt}: the shape table, camel case
+ * aliases, one arrow per relation and the description steps in the legend.
+ */
+@Slf4j(topic = "PlantUMLGenerator")
+public class PlantUMLGenerator {
+    private static final String DEFAULT_SHAPE = "rectangle";
+    /**
+     * {@code <element keyword> <name> as <alias>} at the start of a line, matched once quoted text and stereotypes
+     * are blanked out so an "as" inside a label is not taken for a declaration.
+     */
+    private static final Pattern DECLARED_ALIAS = Pattern.compile("^\\s*(?:actor|agent|artifact|boundary|card|circle"
+            + "|class|cloud|collections|component|control|database|entity|file|folder|frame|hexagon|interface|label"
+            + "|node|note|package|participant|person|queue|rectangle|stack|storage|usecase)"
+            + "\\s+(?:\"\"|[\\w.]+)\\s+as\\s+([A-Za-z0-9_]+)");
+    private static final Pattern QUOTED = Pattern.compile("\"[^\"]*\"|\\([^)]*\\)|<<.*?>>");
+    private static final Map<String, String> SHAPES = Map.of(
+            "rectangle", "rectangle",
+            "circle", "circle",
+            "person", "actor",
+            "stickman", "actor",
+            "oval", "usecase",
+            "cylinder", "database",
+            "diamond", "hexagon"
+    );
+
+    private PlantUMLGenerator() {}
+
+    /**
+     * @return the PlantUML script or empty if the diagram uses a shape that is not in the table
+     */
+    public static Optional<String> generate(Diagram.Element diagram) {
+        return generate(diagram, new Aliases());
+    }
+
+    /**
+     * @param aliases alias table shared with the other parts of a partitioned diagram, see {@link #aliases(List)}
+     */
+    public static Optional<String> generate(Diagram.Element diagram, Aliases aliases) {
+        var participants = Optional.ofNullable(diagram.getParticipants()).orElseGet(List::of);
+        var relations = Optional.ofNullable(diagram.getRelations()).orElseGet(List::of);
+        var containers = Optional.ofNullable(diagram.getContainers()).orElseGet(List::of);
+
+        for (var participant : participants) {
+            if (shape(participant.getShape()).isEmpty()) {
+                return Optional.empty();
+            }
+        }
+
+        var containersByName = new LinkedHashMap<String, Diagram.Container>();
+        containers.stream()
+                .filter(container -> container.getName() != null)
+                .forEach(container -> containersByName.putIfAbsent(container.getName(), container));
+
+        var parents = new HashMap<String, String>();
+        containersByName.values().forEach(container ->
+                Optional.ofNullable(container.getChildren()).orElseGet(List::of).forEach(child -> {
+                    if (!child.equals(container.getName())) {
+                        parents.putIfAbsent(child, container.getName());
+                    }
+                }));
+        breakCycles(containersByName.keySet(), parents);
+
+        var participantsByName = new LinkedHashMap<String, Diagram.Participant>();
+        participants.stream()
+                .filter(participant -> participant.getName() != null)
+                .forEach(participant -> participantsByName.putIfAbsent(participant.getName(), participant));
+
+        var script = new StringBuilder("@startuml\n");
+        appendTitle(script, diagram);
+
+        var declared = new HashSet<String>();
+        for (var container : containersByName.values()) {
+            if (!parents.containsKey(container.getName())) {
+                appendContainer(script, container, "", containersByName, participantsByName, aliases, declared);
+            }
+        }
+        for (var participant : participantsByName.values()) {
+            if (!declared.contains(participant.getName())) {
+                appendParticipant(script, participant, "", aliases, declared);
+            }
+        }
+
+        for (var relation : relations) {
+            for (var name : Arrays.asList(relation.getSource(), relation.getTarget())) {
+                if (name != null && !declared.contains(name)) {
+                    declared.add(name);
+                    script.append(DEFAULT_SHAPE).append(" \"").append(label(name)).append("\" as ")
+                            .append(aliases.of(name)).append('\n');
+                }
+            }
+        }
+
+        for (var relation : relations) {
+            if (relation.getSource() != null && relation.getTarget() != null) {
+                appendRelation(script, relation, aliases.of(relation.getSource()), aliases.of(relation.getTarget()));
+            }
+        }
+
+        appendLegend(script, diagram);
+        return Optional.of(script.append("@enduml\n").toString());
+    }
+
+    /**
+     * Joins the scripts of the parts of a {@link DiagramPartitioner partitioned} diagram, in the order given.
+     * <p>
+     * Titles, legends and chatter around the {@code @startuml} blocks of the parts are dropped, repeated directives
+     * are kept once. The cross relations follow the parts, addressing participants through {@code aliases}, the
+     * table the parts were generated with; an end no part declared under its alias is declared as a rectangle
+     * first. The title of the whole diagram opens the script, its legend closes it.
+     */
+    public static String merge(Diagram.Element diagram, List<String> parts, List<Diagram.Relation> crossRelations,
+                               Aliases aliases) {
+        var script = new StringBuilder("@startuml\n");
+        appendTitle(script, diagram);
+
+        var directives = new HashSet<String>();
+        var declared = new HashSet<String>();
+        for (var part : parts) {
+            for (var line : body(part)) {
+                var trimmed = line.trim();
+                if (isDirective(trimmed) && !directives.add(trimmed)) {
+                    continue;
+                }
+                var matcher = DECLARED_ALIAS.matcher(QUOTED.matcher(line).replaceAll("\"\""));
+                if (matcher.find()) {
+                    declared.add(matcher.group(1));
+                }
+                script.append(line).append('\n');
+            }
+        }
+
+        for (var relation : crossRelations) {
+            for (var name : List.of(relation.getSource(), relation.getTarget())) {
+                if (declared.add(aliases.of(name))) {
+                    script.append(DEFAULT_SHAPE).append(" \"").append(label(name)).append("\" as ")
+                            .append(aliases.of(name)).append('\n');
+                }
+            }
+        }
+        for (var relation : crossRelations) {
+            appendRelation(script, relation, aliases.of(relation.getSource()), aliases.of(relation.getTarget()));
+        }
+
+        appendLegend(script, diagram);
+        return script.append("@enduml\n").toString();
+    }
+
+    /**
+     * Camel case alias of a participant name, the same convention the translation prompt asks the LLM for.
+     */
+    public static String alias(String name) {
+        var result = new StringBuilder();
+        for (var word : name.split("[^A-Za-z0-9]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (result.isEmpty()) {
+                result.append(Character.toLowerCase(word.charAt(0))).append(word.substring(1));
+            } else {
+                result.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+            }
+        }
+        if (result.isEmpty() || Character.isDigit(result.charAt(0))) {
+            result.insert(0, "e");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Lines inside the {@code @startuml} block of a part, or all of its lines but code fences if it has none,
+     * without title and legend.
+     */
+    private static List<String> body(String part) {
+        var lines = part.lines().toList();
+        int start = -1;
+        int end = lines.size();
+        for (int i = 0; i < lines.size(); i++) {
+            var trimmed = lines.get(i).trim();
+            if (start < 0 && trimmed.startsWith("@startuml")) {
+                start = i;
+            } else if (start >= 0 && trimmed.startsWith("@enduml")) {
+                end = i;
+                break;
+            }
+        }
+
+        var result = new ArrayList<String>();
+        boolean legend = false;
+        for (var line : lines.subList(start + 1, end)) {
+            var trimmed = line.trim();
+            if (legend) {
+                legend = !trimmed.equals("end legend") && !trimmed.equals("endlegend");
+            } else if (trimmed.startsWith("legend")) {
+                legend = true;
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("title ") && !trimmed.startsWith("```")) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isDirective(String line) {
+        return line.startsWith("skinparam") || line.startsWith("!") || line.endsWith(" direction");
+    }
+
+    static Optional<String> shape(String shape) {
+        if (isBlank(shape)) {
+            return Optional.of(DEFAULT_SHAPE);
+        }
+        return Optional.ofNullable(SHAPES.get(shape.trim().toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Containers nested in each other in a cycle have no top level one to start from and would be lost with their
+     * children, the first container of every cycle is moved to the top level instead.
+     */
+    private static void breakCycles(Set<String> containers, Map<String, String> parents) {
+        for (var container : containers) {
+            var visited = new HashSet<String>();
+            for (var current = parents.get(container); current != null && visited.add(current);
+                 current = parents.get(current)) {
+                if (current.equals(container)) {
+                    log.warn("containers nested in a cycle, {} is drawn at the top level", container);
+                    parents.remove(container);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void appendContainer(StringBuilder script,
+                                        Diagram.Container container,
+                                        String indent,
+                                        Map<String, Diagram.Container> containers,
+                                        Map<String, Diagram.Participant> participants,
+                                        Aliases aliases,
+                                        Set<String> declared) {
+        if (!declared.add(container.getName())) {
+            return;
+        }
+
+        script.append(indent).append(DEFAULT_SHAPE).append(" \"").append(label(container.getName())).append("\" as ")
+                .append(aliases.of(container.getName()));
+        appendStereotype(script, container.getDescription());
+        script.append(" {\n");
+
+        for (var child : Optional.ofNullable(container.getChildren()).orElseGet(List::of)) {
+            if (containers.containsKey(child)) {
+                appendContainer(script, containers.get(child), indent + "  ", containers, participants, aliases, declared);
+            } else if (participants.containsKey(child)) {
+                appendParticipant(script, participants.get(child), indent + "  ", aliases, declared);
+            } else if (declared.add(child)) {
+                script.append(indent).append("  ").append(DEFAULT_SHAPE).append(" \"").append(label(child))
+                        .append("\" as ").append(aliases.of(child)).append('\n');
+            }
+        }
+
+        script.append(indent).append("}\n");
+    }
+
+    private static void appendParticipant(StringBuilder script,
+                                          Diagram.Participant participant,
+                                          String indent,
+                                          Aliases aliases,
+                                          Set<String> declared) {
+        if (!declared.add(participant.getName())) {
+            return;
+        }
+
+        script.append(indent).append(shape(participant.getShape()).orElse(DEFAULT_SHAPE))
+                .append(" \"").append(label(participant.getName())).append("\" as ")
+                .append(aliases.of(participant.getName()));
+        appendStereotype(script, participant.getDescription());
+        script.append('\n');
+    }
+
+    private static void appendTitle(StringBuilder script, Diagram.Element diagram) {
+        if (!isBlank(diagram.getTitle())) {
+            script.append("title ").append(singleLine(diagram.getTitle())).append('\n');
+        }
+    }
+
+    private static void appendRelation(StringBuilder script, Diagram.Relation relation, String source, String target) {
+        script.append(source).append(" --> ").append(target);
+        if (!isBlank(relation.getDescription())) {
+            script.append(" : ").append(relation.getDescription().trim().replace("\n", "\\n"));
+        }
+        script.append('\n');
+    }
+
+    private static void appendLegend(StringBuilder script, Diagram.Element diagram) {
+        var steps = Optional.ofNullable(diagram.getDescription()).orElseGet(List::of);
+        if (!steps.isEmpty()) {
+            script.append("legend\n");
+            steps.stream()
+                    .filter(step -> !isBlank(step))
+                    .forEach(step -> script.append("* ").append(singleLine(step)).append('\n'));
+            script.append("end legend\n");
+        }
+    }
+
+    private static void appendStereotype(StringBuilder script, String description) {
+        if (isBlank(description)) {
+            return;
+        }
+        var text = singleLine(description).replaceAll("[<>]", "").replaceFirst("^\\(", "").trim();
+        if (!text.isEmpty()) {
+            script.append(" <<").append(text).append(">>");
+        }
+    }
+
+    private static String label(String name) {
+        return singleLine(name).replace('"', '\'');
+    }
+
+    private static String singleLine(String text) {
+        return text.trim().replaceAll("\\s*\\R\\s*", " ");
+    }
+
+    private static boolean isBlank(String text) {
+        return text == null || text.isBlank();
+    }
+
+    /**
+     * One alias table for all parts of a partitioned diagram, filled in partition order before the parts are
+     * generated in parallel, so names that collide across parts get the same distinct aliases on every run.
+     */
+    public static Aliases aliases(List<Diagram.Element> parts) {
+        var aliases = new Aliases();
+        for (var part : parts) {
+            Optional.ofNullable(part.getContainers()).orElseGet(List::of).forEach(container -> {
+                aliases.of(container.getName());
+                Optional.ofNullable(container.getChildren()).orElseGet(List::of).stream()
+                        .filter(Objects::nonNull)
+                        .forEach(aliases::of);
+            });
+            Optional.ofNullable(part.getParticipants()).orElseGet(List::of).stream()
+                    .map(Diagram.Participant::getName)
+                    .filter(Objects::nonNull)
+                    .forEach(aliases::of);
+            Optional.ofNullable(part.getRelations()).orElseGet(List::of).stream()
+                    .flatMap(relation -> Stream.of(relation.getSource(), relation.getTarget()))
+                    .filter(Objects::nonNull)
+                    .forEach(aliases::of);
+        }
+        return aliases;
+    }
+
+    /**
+     * Assigns every name a unique alias, suffixing a counter on collisions.
+     */
+    public static final class Aliases {
+        private final Map<String, String> byName = new HashMap<>();
+        private final Set<String> used = new HashSet<>();
+
+        private Aliases() {}
+
+        public synchronized String of(String name) {
+            return byName.computeIfAbsent(name, key -> {
+                var base = alias(key);
+                var candidate = base;
+                for (int i = 2; !used.add(candidate); i++) {
+                    candidate = base + i;
+                }
+                return candidate;
+            });
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.diagram.ai.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.plantuml.ErrorUmlType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates PlantUML on a dedicated pool with a time budget per script and remembers recent verdicts.
+ * <p>
+ * The correction loop validates the same or nearly the same script several times, the verdict of an identical
+ * script is answered from memory. A parse that exceeds the budget is reported as an
+ * {@link ErrorUmlType#EXECUTION_ERROR}, which ends the correction loop.
+ * <p>
+ * PlantUML's parser does not check for interrupts, so a slow parse keeps its thread after the caller got the
+ * timeout verdict. What bounds the time a thread can be held is the size limit checked before parsing; scripts
+ * above it are rejected the same way as a timeout. The pool is kept apart from {@link PipelineExecutors#cpu()} on
+ * purpose: a parse that cannot be stopped must not hold up the compilation and preprocessing steps of the pipeline.
+ */
+@Slf4j(topic = "PlantUMLValidator")
+public class PlantUMLValidator implements AutoCloseable {
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final Duration timeout;
+    private final int maxLength;
+    private final int maxLines;
+    private final PipelineMetrics metrics;
+    private final Map<String, Optional<PlantUMLAction.Error>> verdicts;
+
+    /**
+     * @param maxLength longest script in characters that is parsed
+     * @param maxLines  most lines of a script that is parsed
+     */
+    public PlantUMLValidator(int threads, Duration timeout, int maxLength, int maxLines, int maxEntries,
+                             PipelineMetrics metrics) {
+        this.executor = Executors.newFixedThreadPool(
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                Thread.ofPlatform().name("plantuml-validate-", 0).daemon().factory());
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("plantuml-watchdog").daemon().factory());
+        this.timeout = timeout;
+        this.maxLength = maxLength;
+        this.maxLines = maxLines;
+        this.metrics = metrics;
+        this.verdicts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<PlantUMLAction.Error>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return a future completed with null if {@code code} is valid, or failed with a {@link PlantUMLAction.Error}
+     */
+    public CompletableFuture<Void> validate(String code) {
+        var key = key(code);
+
+        var verdict = cached(key);
+        metrics.validationCache(verdict != null);
+        if (verdict != null) {
+            return verdict.<CompletableFuture<Void>>map(CompletableFuture::failedFuture)
+                    .orElseGet(() -> CompletableFuture.completedFuture(null));
+        }
+
+        var tooLarge = tooLarge(code);
+        if (tooLarge.isPresent()) {
+            log.warn(tooLarge.get().getMessage());
+            return CompletableFuture.failedFuture(tooLarge.get());
+        }
+
+        var result = new CompletableFuture<Void>();
+        executor.execute(() -> parse(code, key, result));
+        return result;
+    }
+
+    /**
+     * Blocking variant for callers already running on a worker thread.
+     */
+    public Optional<PlantUMLAction.Error> check(String code) {
+        try {
+            validate(code).join();
+            return Optional.empty();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof PlantUMLAction.Error error) {
+                return Optional.of(error);
+            }
+            throw e;
+        }
+    }
+
+    private Optional<PlantUMLAction.Error> tooLarge(String code) {
+        if (code.length() > maxLength) {
+            return Optional.of(new PlantUMLAction.Error("PlantUML script of " + code.length()
+                    + " characters exceeds the limit of " + maxLength, ErrorUmlType.EXECUTION_ERROR));
+        }
+        long lines = code.lines().count();
+        if (lines > maxLines) {
+            return Optional.of(new PlantUMLAction.Error("PlantUML script of " + lines
+                    + " lines exceeds the limit of " + maxLines, ErrorUmlType.EXECUTION_ERROR));
+        }
+        return Optional.empty();
+    }
+
+    private void parse(String code, String key, CompletableFuture<Void> result) {
+        // the budget starts when parsing does, time spent waiting for a thread does not count; the parse itself is
+        // not interrupted, PlantUML would not notice and the flag would outlive it on this pooled thread
+        long start = System.nanoTime();
+        var timer = watchdog.schedule(() -> {
+            if (result.completeExceptionally(new PlantUMLAction.Error(
+                    "PlantUML validation exceeded " + timeout.toMillis() + " ms", ErrorUmlType.EXECUTION_ERROR))) {
+                log.warn("PlantUML validation timed out after {} ms", timeout.toMillis());
+                metrics.validation("timeout", System.nanoTime() - start);
+            }
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        try {
+            PlantUMLAction.validate(code).join();
+            if (result.complete(null)) {
+                metrics.validation("valid", System.nanoTime() - start);
+                store(key, Optional.empty());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof PlantUMLAction.Error error) {
+                if (result.completeExceptionally(error)) {
+                    metrics.validation("invalid", System.nanoTime() - start);
+                    store(key, Optional.of(error));
+                }
+            } else {
+                result.completeExceptionally(e.getCause());
+            }
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+        } finally {
+            timer.cancel(false);
+        }
+    }
+
+    private synchronized Optional<PlantUMLAction.Error> cached(String key) {
+        return verdicts.get(key);
+    }
+
+    private synchronized void store(String key, Optional<PlantUMLAction.Error> verdict) {
+        verdicts.put(key, verdict);
+    }
+
+    private static String key(String code) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HEX.formatHex(digest.digest(code.strip().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+        executor.shutdownNow();
+    }
+}
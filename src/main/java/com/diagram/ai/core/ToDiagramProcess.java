@@ -1,87 +1,156 @@
 package com.diagram.ai.core;
 
+import com.diagram.ai.configurations.DiagramPipelineProperties;
 import com.diagram.ai.exceptions.InvalidDataException;
+import com.diagram.ai.llm.DiagramChatModel;
+import com.diagram.ai.llm.LlmClientRegistry;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.ImageContent;
 import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.TextContent;
 import dev.langchain4j.data.message.UserMessage;
-import dev.langchain4j.model.chat.ChatLanguageModel;
-import dev.langchain4j.model.openai.OpenAiChatModel;
-import lombok.Getter;
+import dev.langchain4j.model.output.Response;
 import lombok.extern.slf4j.Slf4j;
 import org.bsc.async.AsyncGenerator;
+import org.bsc.langgraph4j.CompiledGraph;
+import org.bsc.langgraph4j.GraphStateException;
 import org.bsc.langgraph4j.NodeOutput;
 import org.bsc.langgraph4j.StateGraph;
 
-import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 
 import static org.bsc.langgraph4j.StateGraph.END;
 import static org.bsc.langgraph4j.StateGraph.START;
 import static org.bsc.langgraph4j.action.AsyncEdgeAction.edge_async;
-import static org.bsc.langgraph4j.action.AsyncNodeAction.node_async;
 import static org.bsc.langgraph4j.utils.CollectionsUtils.mapOf;
 
 @Slf4j(topic = "ImageToDiagramProcess")
 public class ToDiagramProcess implements ImageToDiagram {
+    private static final String PREPROCESS_IMAGE = "preprocess_image";
     private static final String AGENT_DESCRIBER = "agent_describer";
     private static final String AGENT_GENERIC_PLANTUML = "agent_generic_plantuml";
     private static final String EVALUATE_RESULT = "evaluate_result";
     private static final String GENERIC = "generic";
+    private static final String GRAPH = "to_diagram";
 
-    private final String baseUrl;
-    private final String apiKey;
-    private final String modelName;
-    private final String imageData;
-    private final boolean isImage;
+    private final LlmClientRegistry llm;
+    private final DiagramCorrectionProcess diagramCorrectionProcess;
+    private final ImagePreprocessor imagePreprocessor;
+    private final PlantUMLValidator validator;
+    private final DiagramPipelineProperties properties;
+    private final PipelineEvents events;
+    private final PipelineExecutors executors;
+    private final PipelineMetrics metrics;
+    private final CompiledGraph<State> app;
 
-    @Getter(lazy = true)
-    private final OpenAiChatModel chatModel = newLLM();
-
-    public ToDiagramProcess(String imageData, boolean isImage, String baseUrl, String apiKey, String modelName) {
-        this.imageData = imageData;
-        this.isImage = isImage;
-        this.baseUrl = baseUrl;
-        this.apiKey = apiKey;
-        this.modelName = modelName;
-    }
-
-    @Override
-    public AsyncGenerator<NodeOutput<State>> execute(Map<String, Object> inputs) throws Exception {
-        var llmVision = getChatModel();
-
-        var app = new StateGraph<>(State::new)
-                .addNode(AGENT_DESCRIBER, node_async(state -> describeDiagramImage(llmVision, imageData, isImage)))
-                .addNode(AGENT_GENERIC_PLANTUML, node_async(this::translateGenericDiagramDescriptionToPlantUML))
+    public ToDiagramProcess(LlmClientRegistry llm,
+                            DiagramCorrectionProcess diagramCorrectionProcess,
+                            ImagePreprocessor imagePreprocessor,
+                            PlantUMLValidator validator,
+                            DiagramPipelineProperties properties,
+                            PipelineEvents events,
+                            PipelineExecutors executors,
+                            PipelineMetrics metrics) throws GraphStateException {
+        this.llm = llm;
+        this.diagramCorrectionProcess = diagramCorrectionProcess;
+        this.imagePreprocessor = imagePreprocessor;
+        this.validator = validator;
+        this.properties = properties;
+        this.events = events;
+        this.executors = executors;
+        this.metrics = metrics;
+        this.app = new StateGraph<>(State::new)
+                .addNode(PREPROCESS_IMAGE,
+                        metrics.timed(GRAPH, PREPROCESS_IMAGE, executors.cpuNode(this::preprocessImage)))
+                .addNode(AGENT_DESCRIBER,
+                        metrics.timed(GRAPH, AGENT_DESCRIBER, executors.ioNode(this::describeDiagramImage)))
+                .addNode(AGENT_GENERIC_PLANTUML,
+                        metrics.timed(GRAPH, AGENT_GENERIC_PLANTUML, this::translateGenericDiagramDescriptionToPlantUML))
                 .addConditionalEdges(
                         AGENT_DESCRIBER,
                         edge_async(state -> GENERIC),
                         mapOf(GENERIC, AGENT_GENERIC_PLANTUML)
                 )
-                .addNode(EVALUATE_RESULT, this::evaluateResult)
+                .addNode(EVALUATE_RESULT, metrics.timed(GRAPH, EVALUATE_RESULT, this::evaluateResult))
                 .addEdge(AGENT_GENERIC_PLANTUML, EVALUATE_RESULT)
-                .addEdge(START,AGENT_DESCRIBER)
+                .addConditionalEdges(
+                        START,
+                        edge_async(this::resumeRoute),
+                        Map.of(PREPROCESS_IMAGE, PREPROCESS_IMAGE,
+                                AGENT_DESCRIBER, AGENT_DESCRIBER,
+                                AGENT_GENERIC_PLANTUML, AGENT_GENERIC_PLANTUML,
+                                EVALUATE_RESULT, EVALUATE_RESULT)
+                )
+                .addEdge(PREPROCESS_IMAGE, AGENT_DESCRIBER)
                 .addEdge(EVALUATE_RESULT, END)
                 .compile();
+    }
 
+    /**
+     * @param inputs must contain {@code isImage} and either {@code imageData} or, for text input, the
+     *               {@code diagram} itself, see {@link State}. An optional
+     *               {@code requestId} lets the correction steps be observed through {@link PipelineEvents}, an
+     *               optional {@code resumeAfter} skips the nodes up to the one named, with their outputs restored
+     *               from a checkpoint
+     */
+    @Override
+    public AsyncGenerator<NodeOutput<State>> execute(Map<String, Object> inputs) throws Exception {
         return app.stream(inputs);
     }
 
-    private Map<String,Object> describeDiagramImage(ChatLanguageModel visionModel, String imageData, boolean isImage) throws Exception {
-        if (isImage) {
+    /**
+     * Nodes of the correction loop resume the loop, the diagram code history carries its progress.
+     */
+    private String resumeRoute(State state) {
+        return state.resumeAfter()
+                .map(node -> switch (node) {
+                    case PREPROCESS_IMAGE -> AGENT_DESCRIBER;
+                    case AGENT_DESCRIBER -> AGENT_GENERIC_PLANTUML;
+                    default -> EVALUATE_RESULT;
+                })
+                .orElse(PREPROCESS_IMAGE);
+    }
+
+    private Map<String,Object> preprocessImage(State state) {
+        if (!state.isImage() || state.imageData().isEmpty()) {
+            return mapOf();
+        }
+
+        var image = imagePreprocessor.prepare(Base64.getDecoder().decode(state.imageData().get()));
+        return mapOf("imageData", Base64.getEncoder().encodeToString(image.data()),
+                "imageMimeType", image.mimeType());
+    }
+
+    private Map<String,Object> describeDiagramImage(State state) throws Exception {
+        if (!state.isImage() && state.diagram().isPresent()) {
+            return mapOf();
+        }
+        var imageData = state.imageData()
+                .orElseThrow(() -> new IllegalArgumentException("no image data provided!"));
+
+        if (state.isImage()) {
             var systemPrompt = loadPromptTemplate("describe_diagram_image.txt").apply(mapOf());
 
-            var imageContent = ImageContent.from(imageData, "image/png", ImageContent.DetailLevel.AUTO);
+            var imageContent = ImageContent.from(imageData,
+                    state.imageMimeType().orElse("image/png"), ImageContent.DetailLevel.AUTO);
             var textContent = new TextContent(systemPrompt.text());
             var message = UserMessage.from(textContent, imageContent);
 
-            var response = visionModel.generate(message);
+            var response = llm.chatModel(AGENT_DESCRIBER, state.priority())
+                    .generate(List.of(message), events.tokens(state, AGENT_DESCRIBER));
             var outputParser = new DiagramOutputParser();
             Diagram.Element result = outputParser.parse(response.content().text());
-            return mapOf("diagram", result);
+            return mapOf("diagram", result, "tokens", tokensAfter(state, response));
         } else {
             var outputParser = new DiagramOutputParser();
             Diagram.Element result = outputParser.parse("```json\n" + imageData + "\n```");
@@ -89,40 +158,210 @@ public class ToDiagramProcess implements ImageToDiagram {
         }
     }
 
-    private Map<String,Object> translateGenericDiagramDescriptionToPlantUML(State state) throws Exception {
-        var diagram = state.diagram().orElseThrow(() -> new IllegalArgumentException("no diagram provided!"));
+    /**
+     * The local compiler runs on the CPU pool, the LLM fallback on a virtual thread. Large diagrams are translated
+     * part by part when partitioning is enabled, the others with several candidates when speculation is.
+     */
+    private CompletableFuture<Map<String,Object>> translateGenericDiagramDescriptionToPlantUML(State state) {
+        var diagram = state.diagram();
+        if (diagram.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("no diagram provided!"));
+        }
+
+        return executors.cpu(() -> compile(diagram.get()))
+                .thenCompose(compiled -> compiled.isPresent()
+                        ? CompletableFuture.completedFuture(
+                                mapOf("diagramCode", (Object) Collections.singletonList(compiled.get())))
+                        : partition(diagram.get())
+                                .map(partition -> generatePartitioned(state, diagram.get(), partition))
+                                .orElseGet(() -> generateWhole(state, diagram.get())));
+    }
+
+    private CompletableFuture<Map<String,Object>> generateWhole(State state, Diagram.Element diagram) {
+        var speculation = properties.getSpeculation();
+        return speculation.isEnabled() && speculation.getCandidates() > 1
+                ? generateSpeculatively(state, diagram)
+                : executors.io(() -> generatePlantUML(state, diagram));
+    }
+
+    private Map<String,Object> generatePlantUML(State state, Diagram.Element diagram) throws Exception {
+        var response = requestPlantUML(llm.chatModel(AGENT_GENERIC_PLANTUML, state.priority()), diagram,
+                events.tokens(state, AGENT_GENERIC_PLANTUML));
 
+        return mapOf("diagramCode", Collections.singletonList(response.content().text()),
+                "tokens", tokensAfter(state, response));
+    }
+
+    private Response<AiMessage> requestPlantUML(DiagramChatModel model, Diagram.Element diagram,
+                                                Consumer<String> partials) throws Exception {
+        return requestPlantUML(model, DiagramPromptEncoder.encode(diagram), partials);
+    }
+
+    private Response<AiMessage> requestPlantUML(DiagramChatModel model, String diagramDescription,
+                                                Consumer<String> partials) throws Exception {
         var systemPrompt = loadPromptTemplate("convert_generic_diagram_to_plantuml.txt")
-                .apply(mapOf("diagram_description", diagram));
-        var response = getChatModel().generate(new SystemMessage(systemPrompt.text()));
+                .apply(mapOf("diagram_description", diagramDescription));
+        var messages = List.<ChatMessage>of(new SystemMessage(systemPrompt.text()));
+        return model.generate(messages, partials);
+    }
+
+    /**
+     * Candidates at different temperatures are requested in parallel and validated as they arrive; the first valid
+     * one wins and the others are cancelled. When none is valid the lowest candidate with an answer goes to the
+     * correction loop, as a single call's answer would have. Partial tokens are not streamed, the candidates would
+     * interleave.
+     */
+    private CompletableFuture<Map<String,Object>> generateSpeculatively(State state, Diagram.Element diagram) {
+        int count = properties.getSpeculation().getCandidates();
+        var temperatures = properties.getSpeculation().getTemperatures();
+        var result = new CompletableFuture<Map<String,Object>>();
+        var calls = new ArrayList<CompletableFuture<Response<AiMessage>>>(count);
+        var candidates = new AtomicReferenceArray<Candidate>(count);
+        var pending = new AtomicInteger(count);
+        var tokens = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            var model = temperatures == null || temperatures.isEmpty()
+                    ? llm.chatModel(AGENT_GENERIC_PLANTUML, state.priority())
+                    : llm.chatModel(AGENT_GENERIC_PLANTUML, state.priority(),
+                            temperatures.get(i % temperatures.size()));
+            var call = executors.cancellableIo(() -> requestPlantUML(model, diagram, token -> {}));
+            calls.add(call);
+
+            call.thenCompose(response -> {
+                        tokens.accumulateAndGet(ImageToDiagram.tokensSpent(response), ImageToDiagram::addTokens);
+                        var code = response.content().text();
+                        return validator.validate(code).handle((v, e) -> new Candidate(code, e == null, null));
+                    })
+                    .exceptionally(e -> new Candidate(null, false, e))
+                    .thenAccept(candidate -> {
+                        candidates.set(index, candidate);
+                        if (candidate.valid() && result.complete(speculationOutput(state, candidate, tokens))) {
+                            metrics.speculation(index == 0 ? "first" : candidates.get(0) != null ? "saved" : "faster",
+                                    index);
+                        }
+                        if (pending.decrementAndGet() == 0 && !result.isDone()) {
+                            noneValid(state, candidates, tokens, result);
+                        }
+                    });
+        }
+
+        result.whenComplete((v, e) -> calls.forEach(call -> call.cancel(true)));
+        return result;
+    }
+
+    private void noneValid(State state, AtomicReferenceArray<Candidate> candidates, AtomicInteger tokens,
+                           CompletableFuture<Map<String,Object>> result) {
+        metrics.speculation("none_valid", -1);
+        for (int i = 0; i < candidates.length(); i++) {
+            if (candidates.get(i).code() != null) {
+                log.info("none of {} candidates is valid, correcting candidate {}", candidates.length(), i);
+                result.complete(speculationOutput(state, candidates.get(i), tokens));
+                return;
+            }
+        }
+        result.completeExceptionally(candidates.get(0).error());
+    }
+
+    private static Map<String,Object> speculationOutput(State state, Candidate candidate, AtomicInteger tokens) {
+        return mapOf("diagramCode", (Object) Collections.singletonList(candidate.code()),
+                "tokens", ImageToDiagram.addTokens(state.tokens(), tokens.get()));
+    }
+
+    /**
+     * @param error why no code came back, null otherwise
+     */
+    private record Candidate(String code, boolean valid, Throwable error) {}
+
+    private Optional<DiagramPartitioner.Partition> partition(Diagram.Element diagram) {
+        var settings = properties.getPartitioning();
+        var participants = Optional.ofNullable(diagram.getParticipants()).map(List::size).orElse(0);
+        if (!settings.isEnabled() || participants < settings.getMinParticipants()) {
+            return Optional.empty();
+        }
+        var partition = DiagramPartitioner.partition(diagram, settings.getMaxPartSize());
+        return partition.parts().size() > 1 ? Optional.of(partition) : Optional.empty();
+    }
 
-        return mapOf("diagramCode", Collections.singletonList(response.content().text()));
+    /**
+     * Every part is compiled or generated and then validated on its own, all in parallel, so the latency follows
+     * the largest part. The parts are merged in partition order whatever order they finish in; invalid parts are
+     * merged as they are and left to the correction loop. Partial tokens are not streamed, the parts would
+     * interleave.
+     */
+    private CompletableFuture<Map<String,Object>> generatePartitioned(State state, Diagram.Element diagram,
+                                                                      DiagramPartitioner.Partition partition) {
+        // compiled and generated parts declare their names with the aliases the cross relations are merged with
+        var aliases = PlantUMLGenerator.aliases(partition.parts());
+        var parts = partition.parts().stream()
+                .map(part -> executors.cpu(() -> compile(part, aliases))
+                        .thenCompose(compiled -> compiled.isPresent()
+                                ? CompletableFuture.completedFuture(new GeneratedPart(compiled.get(), 0, true))
+                                : executors.io(() -> requestPlantUML(
+                                                llm.chatModel(AGENT_GENERIC_PLANTUML, state.priority()),
+                                                DiagramPromptEncoder.encode(part, aliases::of), token -> {}))
+                                        .thenCompose(response -> executors.cpu(() -> new GeneratedPart(
+                                                response.content().text(),
+                                                ImageToDiagram.tokensSpent(response),
+                                                validator.check(response.content().text()).isEmpty())))))
+                .toList();
+
+        return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .whenComplete((v, e) -> {
+                    if (e != null) {
+                        parts.forEach(part -> part.cancel(true));
+                    }
+                })
+                .thenApply(v -> {
+                    var generated = parts.stream().map(CompletableFuture::join).toList();
+                    var invalid = (int) generated.stream().filter(part -> !part.valid()).count();
+                    metrics.partitioned(generated.size(), invalid);
+                    log.info("diagram translated in {} parts, {} invalid, {} cross relations",
+                            generated.size(), invalid, partition.crossRelations().size());
+
+                    var code = PlantUMLGenerator.merge(diagram,
+                            generated.stream().map(GeneratedPart::code).toList(), partition.crossRelations(), aliases);
+                    return mapOf("diagramCode", (Object) Collections.singletonList(code),
+                            "tokens", generated.stream().mapToInt(GeneratedPart::tokens)
+                                    .reduce(state.tokens(), ImageToDiagram::addTokens));
+                });
     }
 
-    private OpenAiChatModel newLLM() {
-        return OpenAiChatModel.builder()
-                .baseUrl(baseUrl)
-                .apiKey(apiKey)
-                .modelName(modelName)
-                .timeout(Duration.ofMinutes(2))
-                .logRequests(true)
-                .logResponses(true)
-                .maxRetries(2)
-                .temperature(0.0)
-                .maxTokens(2000)
-                .build();
+    private record GeneratedPart(String code, int tokens, boolean valid) {}
 
+    private Optional<String> compile(Diagram.Element diagram) {
+        return compile(diagram, null);
+    }
+
+    /**
+     * @param aliases alias table of a partitioned diagram, null for a diagram compiled whole
+     */
+    private Optional<String> compile(Diagram.Element diagram, PlantUMLGenerator.Aliases aliases) {
+        if (!properties.getCompiler().isEnabled()) {
+            return Optional.empty();
+        }
+
+        var generated = aliases == null
+                ? PlantUMLGenerator.generate(diagram)
+                : PlantUMLGenerator.generate(diagram, aliases);
+        return generated.filter(code -> {
+            var error = validator.check(code);
+            error.ifPresent(e -> log.warn("generated PlantUML is invalid, falling back to the LLM: {}", e.getMessage()));
+            return error.isEmpty();
+        });
     }
 
     private CompletableFuture<Map<String,Object>> evaluateResult(State state) {
         CompletableFuture<Map<String,Object>> result = new CompletableFuture<>();
 
-        var diagramCorrectionProcess = new DiagramCorrectionProcess(baseUrl, apiKey, modelName);
-
         var list = new ArrayList<NodeOutput<State>>();
         try {
             return diagramCorrectionProcess.execute(state.data())
-                    .collectAsync(list, v -> log.info(v.toString()))
+                    .collectAsync(list, v -> {
+                        log.info(v.toString());
+                        events.publish(state, v);
+                    })
                     .thenApply(v -> {
                         if (list.isEmpty()) {
                             throw new InvalidDataException("no results");
@@ -0,0 +1,33 @@
+package com.diagram.ai.core.repair;
+
+import com.diagram.ai.core.PlantUMLAction;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Mixing is not admitted, so outside of class diagrams {@code diamond} becomes {@code hexagon}, the shape the
+ * generator and the translation prompt use too. Only the error line reported by PlantUML is touched.
+ */
+public class DiamondShapeFixer implements PlantUMLFixer {
+    private static final Pattern DIAMOND = Pattern.compile("^(\\s*)diamond\\b");
+    private static final Pattern CLASS_DIAGRAM = Pattern.compile("(?m)^\\s*(abstract\\s+class|class|interface|enum)\\s");
+
+    @Override
+    public Optional<String> fix(String code, PlantUMLAction.Error error) {
+        if (CLASS_DIAGRAM.matcher(code).find()) {
+            return Optional.empty();
+        }
+        var lines = code.split("\\R", -1);
+        int errorLine = PlantUMLFixer.errorLine(lines, error);
+        if (errorLine < 0) {
+            return Optional.empty();
+        }
+        var matcher = DIAMOND.matcher(lines[errorLine]);
+        if (!matcher.find()) {
+            return Optional.empty();
+        }
+        lines[errorLine] = matcher.replaceFirst("$1hexagon");
+        return Optional.of(String.join("\n", lines));
+    }
+}
@@ -0,0 +1,35 @@
+package com.diagram.ai.core.repair;
+
+import com.diagram.ai.core.PlantUMLAction;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Removes markdown code fences, e.g. {@code ```plantuml}, left around or inside the script. Only the fence lines are
+ * dropped, and only when PlantUML reports no error line or reports a fence line.
+ */
+public class MarkdownFenceFixer implements PlantUMLFixer {
+    private static final Pattern FENCE = Pattern.compile("^\\s*```[\\w-]*\\s*$");
+
+    @Override
+    public Optional<String> fix(String code, PlantUMLAction.Error error) {
+        var lines = code.split("\\R", -1);
+        int errorLine = PlantUMLFixer.errorLine(lines, error);
+        if (errorLine >= 0 && !isFence(lines[errorLine])) {
+            return Optional.empty();
+        }
+        if (Arrays.stream(lines).noneMatch(MarkdownFenceFixer::isFence)) {
+            return Optional.empty();
+        }
+        return Optional.of(Arrays.stream(lines)
+                .filter(line -> !isFence(line))
+                .collect(Collectors.joining("\n")));
+    }
+
+    private static boolean isFence(String line) {
+        return FENCE.matcher(line).matches();
+    }
+}
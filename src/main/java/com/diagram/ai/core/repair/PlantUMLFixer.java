@@ -0,0 +1,37 @@
+package com.diagram.ai.core.repair;
+
+import com.diagram.ai.core.PlantUMLAction;
+import net.sourceforge.plantuml.ErrorUmlType;
+
+import java.util.Optional;
+
+/**
+ * A mechanical, LLM-free correction of a PlantUML script that failed validation.
+ */
+public interface PlantUMLFixer {
+
+    default boolean supports(ErrorUmlType type) {
+        return type == ErrorUmlType.SYNTAX_ERROR;
+    }
+
+    /**
+     * @return the corrected script, or empty if the fixer does not apply
+     */
+    Optional<String> fix(String code, PlantUMLAction.Error error);
+
+    /**
+     * Index in {@code lines} of the error line reported by PlantUML, which counts from the {@code @startuml} line.
+     */
+    static int errorLine(String[] lines, PlantUMLAction.Error error) {
+        if (error.getLine() < 0) {
+            return -1;
+        }
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].trim().startsWith("@startuml")) {
+                int line = i + error.getLine();
+                return line < lines.length ? line : -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.diagram.ai.core.repair;
+
+import com.diagram.ai.core.PlantUMLAction;
+import com.diagram.ai.core.PlantUMLValidator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Runs the {@link PlantUMLFixer}s in order, re-validating locally after each applied fix.
+ */
+@Slf4j(topic = "PlantUMLRepairChain")
+public class PlantUMLRepairChain {
+    private static final int MAX_PASSES = 3;
+
+    private final List<PlantUMLFixer> fixers;
+    private final PlantUMLValidator validator;
+
+    public PlantUMLRepairChain(List<PlantUMLFixer> fixers, PlantUMLValidator validator) {
+        this.fixers = List.copyOf(fixers);
+        this.validator = validator;
+    }
+
+    public static PlantUMLRepairChain defaultChain(PlantUMLValidator validator) {
+        return new PlantUMLRepairChain(List.of(
+                new MarkdownFenceFixer(),
+                new StartEndUmlFixer(),
+                new UseCaseKeywordFixer(),
+                new DiamondShapeFixer(),
+                new QuotedNameFixer()),
+                validator);
+    }
+
+    /**
+     * @param code   script that failed validation
+     * @param error  validation error of {@code code}
+     * @param fixed  last script produced by the chain, equal to {@code code} if no fixer applied
+     * @param remainingError validation error of {@code fixed}, empty if it is valid
+     * @param applied simple names of the fixers that changed the script
+     */
+    public record Result(String code,
+                         PlantUMLAction.Error error,
+                         String fixed,
+                         Optional<PlantUMLAction.Error> remainingError,
+                         List<String> applied) {
+
+        public boolean isResolved() {
+            return remainingError.isEmpty();
+        }
+
+        public boolean isChanged() {
+            return !applied.isEmpty();
+        }
+    }
+
+    public Result repair(String code, PlantUMLAction.Error error) {
+        var applied = new ArrayList<String>();
+        var current = code;
+        var currentError = error;
+
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            boolean progress = false;
+
+            for (var fixer : fixers) {
+                if (!fixer.supports(currentError.getType())) {
+                    continue;
+                }
+
+                var fixed = fixer.fix(current, currentError);
+                if (fixed.isEmpty() || fixed.get().equals(current)) {
+                    continue;
+                }
+
+                applied.add(fixer.getClass().getSimpleName());
+                current = fixed.get();
+                progress = true;
+
+                var verdict = validator.check(current);
+                if (verdict.isEmpty()) {
+                    log.debug("resolved locally by {}", applied);
+                    return new Result(code, error, current, Optional.empty(), applied);
+                }
+                currentError = verdict.get();
+            }
+
+            if (!progress) {
+                break;
+            }
+        }
+
+        return new Result(code, error, current, Optional.of(currentError), applied);
+    }
+}
@@ -0,0 +1,38 @@
+package com.diagram.ai.core.repair;
+
+import com.diagram.ai.core.PlantUMLAction;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Quotes element names containing spaces, e.g. {@code actor Web User as user} becomes
+ * {@code actor "Web User" as user}. Only the error line is touched when PlantUML reports one.
+ */
+public class QuotedNameFixer implements PlantUMLFixer {
+    private static final Pattern DECLARATION = Pattern.compile(
+            "^(\\s*)(actor|agent|artifact|boundary|card|circle|cloud|collections|component|control|database|entity"
+                    + "|file|folder|frame|hexagon|interface|node|package|participant|person|queue|rectangle|stack"
+                    + "|storage|usecase)\\s+([^\"\\s][^\"{<]*?\\s[^\"{<]*?)(\\s+as\\s+\\S.*|\\s*<<.*|\\s*\\{.*)?\\s*$");
+
+    @Override
+    public Optional<String> fix(String code, PlantUMLAction.Error error) {
+        var lines = code.split("\\R", -1);
+        int errorLine = PlantUMLFixer.errorLine(lines, error);
+
+        boolean changed = false;
+        for (int i = 0; i < lines.length; i++) {
+            if (errorLine >= 0 && i != errorLine) {
+                continue;
+            }
+            var matcher = DECLARATION.matcher(lines[i]);
+            if (matcher.matches() && !matcher.group(3).contains(" as ")) {
+                var rest = matcher.group(4) != null ? matcher.group(4) : "";
+                lines[i] = matcher.group(1) + matcher.group(2) + " \"" + matcher.group(3).trim() + "\"" + rest;
+                changed = true;
+            }
+        }
+
+        return changed ? Optional.of(String.join("\n", lines)) : Optional.empty();
+    }
+}
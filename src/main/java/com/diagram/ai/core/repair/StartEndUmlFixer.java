@@ -0,0 +1,40 @@
+package com.diagram.ai.core.repair;
+
+import com.diagram.ai.core.PlantUMLAction;
+
+import java.util.Optional;
+
+/**
+ * Adds a missing {@code @startuml} or {@code @enduml} and drops any chatter outside of them.
+ */
+public class StartEndUmlFixer implements PlantUMLFixer {
+    private static final String START = "@startuml";
+    private static final String END = "@enduml";
+
+    @Override
+    public Optional<String> fix(String code, PlantUMLAction.Error error) {
+        int start = code.indexOf(START);
+        int end = code.lastIndexOf(END);
+
+        if (start >= 0 && end > start && code.indexOf(START, start + 1) < 0) {
+            return Optional.empty();
+        }
+
+        String body;
+        if (start < 0) {
+            body = end < 0 ? code : code.substring(0, end);
+        } else {
+            int from = code.indexOf('\n', start);
+            int to = end > start ? end : code.length();
+            body = from < 0 || from > to ? "" : code.substring(from + 1, to);
+        }
+
+        // keep the first block only when the model emitted several of them
+        int nested = body.indexOf(START);
+        if (nested >= 0) {
+            body = body.substring(0, nested);
+        }
+
+        return Optional.of(START + "\n" + body.strip() + "\n" + END + "\n");
+    }
+}
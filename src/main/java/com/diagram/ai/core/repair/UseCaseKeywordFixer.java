@@ -0,0 +1,29 @@
+package com.diagram.ai.core.repair;
+
+import com.diagram.ai.core.PlantUMLAction;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the {@code use case} spelling, produced by the translation prompt, into the {@code usecase} keyword.
+ * Only the error line reported by PlantUML is touched.
+ */
+public class UseCaseKeywordFixer implements PlantUMLFixer {
+    private static final Pattern USE_CASE = Pattern.compile("(?i)^(\\s*)use\\s+case\\b");
+
+    @Override
+    public Optional<String> fix(String code, PlantUMLAction.Error error) {
+        var lines = code.split("\\R", -1);
+        int errorLine = PlantUMLFixer.errorLine(lines, error);
+        if (errorLine < 0) {
+            return Optional.empty();
+        }
+        var matcher = USE_CASE.matcher(lines[errorLine]);
+        if (!matcher.find()) {
+            return Optional.empty();
+        }
+        lines[errorLine] = matcher.replaceFirst("$1usecase");
+        return Optional.of(String.join("\n", lines));
+    }
+}
@@ -0,0 +1,194 @@
+package com.diagram.ai.llm;
+
+import com.diagram.ai.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * AIMD limit on the number of concurrent calls to the LLM provider.
+ * <p>
+ * The limit grows by one per limit's worth of fast successful calls while it is fully used, and shrinks by
+ * {@code backoffRatio} when the provider answers 429, times out or gets slower than {@code latencyThreshold}.
+ * Calls above the limit wait in a bounded queue, interactive ones first; when the queue is full or the wait too long
+ * they fail with a {@link ServiceUnavailableException} carrying a Retry-After hint.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+    /**
+     * One burst of 429s should shrink the limit once, not once per rejected call.
+     */
+    private static final long DECREASE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final LlmProperties.Limiter settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparing(Waiter::priority).thenComparingLong(Waiter::sequence));
+    private final Counter rejected;
+
+    private double limit;
+    private int inFlight;
+    private long sequence;
+    private long lastDecrease = System.nanoTime() - DECREASE_INTERVAL;
+
+    public enum Outcome {
+        SUCCESS,
+        /**
+         * The provider asked to slow down or did not answer in time.
+         */
+        OVERLOADED,
+        /**
+         * Any other failure, it says nothing about the provider's capacity.
+         */
+        ERROR,
+        /**
+         * The call was cancelled on our side, its duration says nothing about the provider.
+         */
+        IGNORED
+    }
+
+    private record Waiter(LlmPriority priority, long sequence, Condition admission, boolean[] admitted) {}
+
+    public AdaptiveConcurrencyLimiter(LlmProperties.Limiter settings, MeterRegistry registry) {
+        this.settings = settings;
+        this.limit = settings.getInitialLimit();
+        this.rejected = Counter.builder("diagram.llm.limiter.rejected")
+                .description("LLM calls rejected because the wait queue was full or the wait too long")
+                .register(registry);
+        Gauge.builder("diagram.llm.limiter.limit", this, AdaptiveConcurrencyLimiter::limit)
+                .description("Current concurrency limit toward the LLM provider")
+                .register(registry);
+        Gauge.builder("diagram.llm.limiter.in_flight", this, limiter -> limiter.read(() -> limiter.inFlight))
+                .register(registry);
+        Gauge.builder("diagram.llm.limiter.queued", this, limiter -> limiter.read(limiter.queue::size))
+                .register(registry);
+    }
+
+    public Permit acquire(LlmPriority priority) throws InterruptedException {
+        lock.lock();
+        try {
+            if (queue.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return new Permit();
+            }
+            if (queue.size() >= settings.getMaxQueue()) {
+                rejected.increment();
+                throw overloaded("LLM queue is full");
+            }
+
+            var waiter = new Waiter(priority, sequence++, lock.newCondition(), new boolean[1]);
+            queue.add(waiter);
+            long nanos = settings.getMaxWait().toNanos();
+            try {
+                while (!waiter.admitted()[0]) {
+                    if (nanos <= 0) {
+                        queue.remove(waiter);
+                        rejected.increment();
+                        throw overloaded("LLM queue wait exceeded " + settings.getMaxWait().toSeconds() + "s");
+                    }
+                    nanos = waiter.admission().awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.admitted()[0]) {
+                    // admitted right before the interrupt, hand the slot on
+                    inFlight--;
+                    admitWaiters();
+                } else {
+                    queue.remove(waiter);
+                }
+                throw e;
+            }
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if new calls would be rejected right away, used to fail fast before a conversion starts
+     */
+    public boolean isSaturated() {
+        return read(() -> queue.size() >= settings.getMaxQueue());
+    }
+
+    public ServiceUnavailableException overloaded(String message) {
+        return new ServiceUnavailableException(message + ", retry later", settings.getRetryAfter());
+    }
+
+    public double limit() {
+        return read(() -> limit);
+    }
+
+    private void release(Outcome outcome, long latencyNanos) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= (int) limit;
+            inFlight--;
+
+            if (outcome == Outcome.OVERLOADED
+                    || (outcome == Outcome.SUCCESS && latencyNanos > settings.getLatencyThreshold().toNanos())) {
+                decrease(outcome);
+            } else if (outcome == Outcome.SUCCESS && saturated) {
+                limit = Math.min(settings.getMaxLimit(), limit + 1.0 / limit);
+            }
+
+            admitWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(Outcome outcome) {
+        long now = System.nanoTime();
+        if (now - lastDecrease < DECREASE_INTERVAL) {
+            return;
+        }
+        lastDecrease = now;
+        var previous = limit;
+        limit = Math.max(settings.getMinLimit(), limit * settings.getBackoffRatio());
+        log.info("LLM concurrency limit {} -> {} ({})", (int) previous, (int) limit,
+                outcome == Outcome.OVERLOADED ? "provider overloaded" : "slow responses");
+    }
+
+    private void admitWaiters() {
+        while (!queue.isEmpty() && inFlight < (int) limit) {
+            var waiter = queue.poll();
+            waiter.admitted()[0] = true;
+            inFlight++;
+            waiter.admission().signal();
+        }
+    }
+
+    private <T> T read(Supplier<T> value) {
+        lock.lock();
+        try {
+            return value.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One admitted call, must be released exactly once.
+     */
+    public final class Permit {
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        public void release(Outcome outcome) {
+            if (released) {
+                return;
+            }
+            released = true;
+            AdaptiveConcurrencyLimiter.this.release(outcome, System.nanoTime() - start);
+        }
+    }
+}
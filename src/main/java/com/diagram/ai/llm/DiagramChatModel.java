@@ -0,0 +1,26 @@
+package com.diagram.ai.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Chat model handed out to the graph nodes. Besides the blocking calls it forwards the completion tokens as they
+ * arrive, when the underlying client streams.
+ */
+public interface DiagramChatModel extends ChatLanguageModel {
+
+    /**
+     * @param partials receives the completion tokens as they arrive, never called by a client that does not stream
+     */
+    Response<AiMessage> generate(List<ChatMessage> messages, Consumer<String> partials);
+
+    @Override
+    default Response<AiMessage> generate(List<ChatMessage> messages) {
+        return generate(messages, token -> {});
+    }
+}
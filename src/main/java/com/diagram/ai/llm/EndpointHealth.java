@@ -0,0 +1,74 @@
+package com.diagram.ai.llm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks consecutive failures per endpoint. An endpoint that failed {@code failureThreshold} times in a row is
+ * moved behind the healthy ones until its cooldown has passed or it answers again.
+ */
+@Slf4j
+class EndpointHealth {
+    private final LlmProperties.Health settings;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    private static final class State {
+        private int failures;
+        private long unhealthyUntil;
+    }
+
+    EndpointHealth(LlmProperties.Health settings, MeterRegistry registry, Iterable<String> endpoints) {
+        this.settings = settings;
+        for (var endpoint : endpoints) {
+            states.put(endpoint, new State());
+            Gauge.builder("diagram.llm.endpoint.healthy", this, health -> health.isHealthy(endpoint) ? 1 : 0)
+                    .description("1 while the endpoint is used as primary, 0 while it cools down after failures")
+                    .tag("endpoint", endpoint)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * @return {@code endpoints} with the healthy ones first, otherwise in the given order
+     */
+    List<String> order(List<String> endpoints) {
+        var result = new ArrayList<>(endpoints);
+        result.sort(Comparator.comparing(endpoint -> !isHealthy(endpoint)));
+        return result;
+    }
+
+    boolean isHealthy(String endpoint) {
+        var state = states.get(endpoint);
+        synchronized (state) {
+            return state.unhealthyUntil <= System.currentTimeMillis();
+        }
+    }
+
+    void success(String endpoint) {
+        var state = states.get(endpoint);
+        synchronized (state) {
+            state.failures = 0;
+            state.unhealthyUntil = 0;
+        }
+    }
+
+    void failure(String endpoint, Throwable e) {
+        var state = states.get(endpoint);
+        synchronized (state) {
+            if (++state.failures < settings.getFailureThreshold()) {
+                return;
+            }
+            state.failures = 0;
+            state.unhealthyUntil = System.currentTimeMillis() + settings.getCooldown().toMillis();
+        }
+        log.warn("endpoint {} failed {} times in a row, demoted for {}s: {}", endpoint,
+                settings.getFailureThreshold(), settings.getCooldown().toSeconds(), e.getMessage());
+    }
+}
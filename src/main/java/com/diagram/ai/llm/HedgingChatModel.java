@@ -0,0 +1,175 @@
+package com.diagram.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Sends a call to the node's primary endpoint and, if it has not answered once the node's usual latency has passed,
+ * a hedge to the next endpoint. The first successful response wins and the other call is cancelled. A failed call
+ * is retried right away on the next endpoint.
+ */
+@Slf4j
+class HedgingChatModel implements DiagramChatModel {
+    private final String node;
+    private final Map<String, DiagramChatModel> endpoints;
+    private final EndpointHealth health;
+    private final LlmProperties.Hedging settings;
+    private final ExecutorService executor;
+    private final LatencyTracker latencies;
+    private final Counter hedges;
+    private final Counter hedgeWins;
+
+    /**
+     * @param endpoints clients of the node's endpoints by name, in order of preference
+     */
+    HedgingChatModel(String node,
+                     Map<String, DiagramChatModel> endpoints,
+                     EndpointHealth health,
+                     LlmProperties.Hedging settings,
+                     ExecutorService executor,
+                     MeterRegistry registry) {
+        this.node = node;
+        this.endpoints = new LinkedHashMap<>(endpoints);
+        this.health = health;
+        this.settings = settings;
+        this.executor = executor;
+        this.latencies = new LatencyTracker(settings.getWindow());
+        this.hedges = Counter.builder("diagram.llm.hedges")
+                .description("Calls sent to a second endpoint because the first one was slow")
+                .tag("node", node)
+                .register(registry);
+        this.hedgeWins = Counter.builder("diagram.llm.hedges.won")
+                .description("Hedged calls answered first by the second endpoint")
+                .tag("node", node)
+                .register(registry);
+    }
+
+    /**
+     * Only the tokens of the call that streams first are forwarded, the calls racing it would garble them.
+     */
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, Consumer<String> partials) {
+        var leader = new AtomicReference<DiagramChatModel>();
+        return call(model -> model.generate(messages, token -> {
+            if (leader.compareAndSet(null, model) || leader.get() == model) {
+                partials.accept(token);
+            }
+        }));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return call(model -> model.generate(messages, toolSpecifications));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return call(model -> model.generate(messages, toolSpecification));
+    }
+
+    /**
+     * @return delay after which a hedge is sent, the configured percentile of recent latencies
+     */
+    Duration hedgeDelay() {
+        var delay = latencies.percentile(
+                settings.getPercentile(), settings.getMinSamples(), settings.getInitialDelay());
+        return delay.compareTo(settings.getMinDelay()) < 0 ? settings.getMinDelay() : delay;
+    }
+
+    private Response<AiMessage> call(Function<DiagramChatModel, Response<AiMessage>> call) {
+        var order = health.order(List.copyOf(endpoints.keySet()));
+        var completion = new ExecutorCompletionService<Response<AiMessage>>(executor);
+        var running = new HashMap<Future<Response<AiMessage>>, String>();
+        var mdc = MDC.getCopyOfContextMap();
+        long start = System.nanoTime();
+        long delay = settings.isEnabled() ? hedgeDelay().toNanos() : Long.MAX_VALUE;
+
+        int started = 0;
+        int hedged = 0;
+        RuntimeException failure = null;
+        try {
+            running.put(submit(completion, order.get(started++), call, mdc), order.getFirst());
+            while (!running.isEmpty()) {
+                boolean mayHedge = started < order.size() && hedged < settings.getMaxHedges();
+                var done = mayHedge ? completion.poll(delay, TimeUnit.NANOSECONDS) : completion.take();
+                if (done == null) {
+                    var endpoint = order.get(started++);
+                    log.info("{} has not answered after {}ms, hedging on {}", node,
+                            TimeUnit.NANOSECONDS.toMillis(delay), endpoint);
+                    hedged++;
+                    hedges.increment();
+                    running.put(submit(completion, endpoint, call, mdc), endpoint);
+                    continue;
+                }
+
+                var endpoint = running.remove(done);
+                try {
+                    var response = done.get();
+                    health.success(endpoint);
+                    if (failure == null) {
+                        latencies.record(System.nanoTime() - start);
+                    }
+                    if (hedged > 0 && !endpoint.equals(order.getFirst())) {
+                        hedgeWins.increment();
+                    }
+                    return response;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof RuntimeException cause
+                            ? cause
+                            : new RuntimeException(e.getCause());
+                    health.failure(endpoint, failure);
+                    if (running.isEmpty() && started < order.size()) {
+                        var next = order.get(started++);
+                        log.warn("{} failed on {}, retrying on {}: {}", node, endpoint, next, failure.getMessage());
+                        running.put(submit(completion, next, call, mdc), next);
+                    }
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for " + node);
+        } finally {
+            // the loser of a hedge, or every call when the caller gave up
+            running.keySet().forEach(future -> future.cancel(true));
+        }
+    }
+
+    private Future<Response<AiMessage>> submit(ExecutorCompletionService<Response<AiMessage>> completion,
+                                               String endpoint,
+                                               Function<DiagramChatModel, Response<AiMessage>> call,
+                                               Map<String, String> mdc) {
+        var model = endpoints.get(endpoint);
+        return completion.submit(() -> {
+            if (mdc != null) {
+                MDC.setContextMap(mdc);
+            }
+            try {
+                return call.apply(model);
+            } finally {
+                MDC.clear();
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package com.diagram.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Records latency and token usage of every call, tagged by model and graph node.
+ * <p>
+ * Responses without usage, from streams cut off early or from providers that do not report it, get their usage
+ * {@link TokenEstimator estimated} from the prompt and the answer, counted with {@code estimated=true}. With
+ * {@code estimateMissingUsage} off they are passed on without usage and exhaust the request's token budget.
+ */
+class InstrumentedChatModel implements DiagramChatModel {
+    private final ChatLanguageModel delegate;
+    private final MeterRegistry registry;
+    private final String model;
+    private final String node;
+    private final boolean estimateMissingUsage;
+
+    InstrumentedChatModel(ChatLanguageModel delegate, MeterRegistry registry, String model, String node,
+                          boolean estimateMissingUsage) {
+        this.delegate = delegate;
+        this.registry = registry;
+        this.model = model;
+        this.node = node;
+        this.estimateMissingUsage = estimateMissingUsage;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, Consumer<String> partials) {
+        return record(messages, () -> delegate instanceof DiagramChatModel streaming
+                ? streaming.generate(messages, partials)
+                : delegate.generate(messages));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return record(messages, () -> delegate.generate(messages, toolSpecifications));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return record(messages, () -> delegate.generate(messages, toolSpecification));
+    }
+
+    private Response<AiMessage> record(List<ChatMessage> messages, Supplier<Response<AiMessage>> call) {
+        var sample = Timer.start(registry);
+        var outcome = "error";
+        try {
+            var response = call.get();
+            outcome = "success";
+            var usage = response.tokenUsage();
+            if (usage != null && usage.totalTokenCount() != null) {
+                tokens("prompt", usage.inputTokenCount(), false);
+                tokens("completion", usage.outputTokenCount(), false);
+            } else if (estimateMissingUsage) {
+                var text = response.content() != null && response.content().text() != null
+                        ? response.content().text()
+                        : "";
+                usage = new TokenUsage(TokenEstimator.estimate(messages), TokenEstimator.estimate(text));
+                tokens("prompt", usage.inputTokenCount(), true);
+                tokens("completion", usage.outputTokenCount(), true);
+                response = Response.from(response.content(), usage, response.finishReason());
+            }
+            return response;
+        } finally {
+            sample.stop(Timer.builder("diagram.llm.latency")
+                    .description("Duration of a chat model call, retries included")
+                    .tag("model", model)
+                    .tag("node", node)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
+
+    private void tokens(String type, Integer count, boolean estimated) {
+        if (count == null) {
+            return;
+        }
+        Counter.builder("diagram.llm.tokens")
+                .description("Tokens reported by the chat model, or estimated when it reports none")
+                .tag("model", model)
+                .tag("node", node)
+                .tag("type", type)
+                .tag("estimated", String.valueOf(estimated))
+                .register(registry)
+                .increment(count);
+    }
+}
@@ -0,0 +1,40 @@
+package com.diagram.ai.llm;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Sliding window of recent call latencies, used to decide when a call has become unusually slow.
+ */
+class LatencyTracker {
+    private final long[] samples;
+    private int next;
+    private int size;
+
+    LatencyTracker(int window) {
+        this.samples = new long[Math.max(1, window)];
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+    }
+
+    /**
+     * @return the {@code percentile} of the recorded latencies, {@code fallback} while fewer than
+     * {@code minSamples} are known
+     */
+    Duration percentile(double percentile, int minSamples, Duration fallback) {
+        long[] sorted;
+        synchronized (this) {
+            if (size < Math.max(1, minSamples)) {
+                return fallback;
+            }
+            sorted = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return Duration.ofNanos(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+}
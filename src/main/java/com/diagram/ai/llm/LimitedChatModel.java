@@ -0,0 +1,93 @@
+package com.diagram.ai.llm;
+
+import dev.ai4j.openai4j.OpenAiHttpException;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.output.Response;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Takes a permit of the {@link AdaptiveConcurrencyLimiter} around every call and reports how the call went.
+ */
+class LimitedChatModel implements DiagramChatModel {
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private final DiagramChatModel delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final LlmPriority priority;
+
+    LimitedChatModel(DiagramChatModel delegate, AdaptiveConcurrencyLimiter limiter, LlmPriority priority) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.priority = priority;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, Consumer<String> partials) {
+        return call(() -> delegate.generate(messages, partials));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return call(() -> delegate.generate(messages, toolSpecifications));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return call(() -> delegate.generate(messages, toolSpecification));
+    }
+
+    private Response<AiMessage> call(Supplier<Response<AiMessage>> call) {
+        AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for the LLM");
+        }
+
+        // released in finally, so an Error does not leak the permit
+        var outcome = AdaptiveConcurrencyLimiter.Outcome.ERROR;
+        try {
+            var response = call.get();
+            outcome = AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+            return response;
+        } catch (RuntimeException e) {
+            outcome = outcome(e);
+            throw e;
+        } finally {
+            permit.release(outcome);
+        }
+    }
+
+    /**
+     * Only what the provider did counts as overload: 429, 503 and socket timeouts. Interrupts are our own
+     * cancellations, of hedges, speculative candidates or abandoned requests, and are ignored.
+     */
+    static AdaptiveConcurrencyLimiter.Outcome outcome(Throwable e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+        }
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OpenAiHttpException http
+                    && (http.code() == TOO_MANY_REQUESTS || http.code() == SERVICE_UNAVAILABLE)) {
+                return AdaptiveConcurrencyLimiter.Outcome.OVERLOADED;
+            }
+            if (cause instanceof SocketTimeoutException) {
+                return AdaptiveConcurrencyLimiter.Outcome.OVERLOADED;
+            }
+            if (cause instanceof CancellationException || cause instanceof InterruptedIOException) {
+                return AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+            }
+        }
+        return AdaptiveConcurrencyLimiter.Outcome.ERROR;
+    }
+}
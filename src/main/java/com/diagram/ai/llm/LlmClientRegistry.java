@@ -0,0 +1,143 @@
+package com.diagram.ai.llm;
+
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Application wide owner of the chat model clients.
+ * <p>
+ * Every {@link OpenAiChatModel} wraps its own HTTP client and connection pool, so clients are created once
+ * and shared by all requests. Nodes whose settings resolve to the same values on the same endpoint share one client.
+ * Nodes served by several endpoints get a {@link HedgingChatModel} in front of them.
+ */
+@Slf4j
+@Component
+public class LlmClientRegistry {
+    private final LlmProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<ClientKey, ChatLanguageModel> clients = new ConcurrentHashMap<>();
+    private final Map<NodeKey, DiagramChatModel> nodes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> promptLimits = new ConcurrentHashMap<>();
+    private final Map<String, LlmProperties.Endpoint> endpoints;
+    private final EndpointHealth health;
+    private final ExecutorService hedgeExecutor;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * @param temperature overrides the node's temperature when set
+     */
+    private record NodeKey(String node, Double temperature) {}
+
+    private record ClientKey(LlmProperties.Endpoint endpoint, Duration timeout, Integer maxRetries, Integer maxTokens,
+                             Double temperature) {}
+
+    public LlmClientRegistry(LlmProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.endpoints = properties.endpoints();
+        this.health = new EndpointHealth(properties.getHealth(), meterRegistry, endpoints.keySet());
+        this.hedgeExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("llm-hedge-", 0).factory());
+        this.limiter = new AdaptiveConcurrencyLimiter(properties.getLimiter(), meterRegistry);
+        properties.getNodes().keySet().forEach(node -> client(new NodeKey(node, null)));
+    }
+
+    public DiagramChatModel chatModel(String node) {
+        return chatModel(node, LlmPriority.INTERACTIVE);
+    }
+
+    /**
+     * @param priority admission order when the provider is saturated, see {@link AdaptiveConcurrencyLimiter}
+     */
+    public DiagramChatModel chatModel(String node, LlmPriority priority) {
+        return chatModel(new NodeKey(node, null), priority);
+    }
+
+    /**
+     * Same node with another sampling temperature, used to draw different candidates for the same prompt.
+     */
+    public DiagramChatModel chatModel(String node, LlmPriority priority, double temperature) {
+        return chatModel(new NodeKey(node, temperature), priority);
+    }
+
+    private DiagramChatModel chatModel(NodeKey key, LlmPriority priority) {
+        var node = key.node();
+        var model = properties.getLimiter().isEnabled()
+                ? new LimitedChatModel(client(key), limiter, priority)
+                : client(key);
+        return new PromptCheckedChatModel(model, node, promptLimits.computeIfAbsent(node,
+                name -> properties.node(name).getMaxPromptTokens()));
+    }
+
+    public AdaptiveConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    private DiagramChatModel client(NodeKey key) {
+        return nodes.computeIfAbsent(key, this::newNodeClient);
+    }
+
+    private DiagramChatModel newNodeClient(NodeKey nodeKey) {
+        var name = nodeKey.node();
+        var node = properties.node(name);
+        var temperature = Objects.requireNonNullElse(nodeKey.temperature(), node.getTemperature());
+        var models = new LinkedHashMap<String, DiagramChatModel>();
+        for (var endpointName : node.getEndpoints()) {
+            var endpoint = endpoints.get(endpointName);
+            var key = new ClientKey(endpoint, node.getTimeout(), node.getMaxRetries(), node.getMaxTokens(),
+                    temperature);
+            models.put(endpointName, new InstrumentedChatModel(
+                    clients.computeIfAbsent(key, this::newLLM), meterRegistry, endpoint.getModelName(), name,
+                    properties.isEstimateMissingUsage()));
+        }
+        log.info("node {} at temperature {} served by {}", name, temperature, models.keySet());
+
+        return models.size() == 1
+                ? models.values().iterator().next()
+                : new HedgingChatModel(name, models, health, properties.getHedging(), hedgeExecutor, meterRegistry);
+    }
+
+    private ChatLanguageModel newLLM(ClientKey key) {
+        log.info("creating chat model client {} for {}", key.endpoint().getModelName(), key.endpoint().getBaseUrl());
+        if (properties.isStreaming()) {
+            return new StreamingClientChatModel(OpenAiStreamingChatModel.builder()
+                    .baseUrl(key.endpoint().getBaseUrl())
+                    .apiKey(key.endpoint().getApiKey())
+                    .modelName(key.endpoint().getModelName())
+                    .timeout(key.timeout())
+                    .logRequests(properties.isLogRequests())
+                    .logResponses(properties.isLogResponses())
+                    .temperature(key.temperature())
+                    .maxTokens(key.maxTokens())
+                    .build(), key.maxRetries(), meterRegistry, key.endpoint().getModelName());
+        }
+        return OpenAiChatModel.builder()
+                .baseUrl(key.endpoint().getBaseUrl())
+                .apiKey(key.endpoint().getApiKey())
+                .modelName(key.endpoint().getModelName())
+                .timeout(key.timeout())
+                .logRequests(properties.isLogRequests())
+                .logResponses(properties.isLogResponses())
+                .maxRetries(key.maxRetries())
+                .temperature(key.temperature())
+                .maxTokens(key.maxTokens())
+                .build();
+    }
+
+    @PreDestroy
+    public void close() {
+        hedgeExecutor.shutdownNow();
+    }
+}
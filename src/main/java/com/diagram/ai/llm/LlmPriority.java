@@ -0,0 +1,15 @@
+package com.diagram.ai.llm;
+
+/**
+ * Order in which calls waiting for the {@link AdaptiveConcurrencyLimiter} are admitted.
+ */
+public enum LlmPriority {
+    /**
+     * A client is waiting for the response.
+     */
+    INTERACTIVE,
+    /**
+     * Batch items and background jobs.
+     */
+    BATCH
+}
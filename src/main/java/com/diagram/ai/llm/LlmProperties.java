@@ -0,0 +1,185 @@
+package com.diagram.ai.llm;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+@Data
+@ConfigurationProperties(prefix = "ai")
+public class LlmProperties {
+    private String baseUrl;
+    private String apiKey;
+    private String modelName;
+    private boolean logRequests = true;
+    private boolean logResponses = true;
+    /**
+     * Stream completions, so tokens reach the client as they are generated and the generation stops once the
+     * payload is complete. Streaming clients retry only calls that fail before their first token.
+     */
+    private boolean streaming = true;
+    /**
+     * Estimate the usage of responses that come without one, e.g. streams cut off once their payload is complete.
+     * When off such a response exhausts the token budget of its request's correction loop.
+     */
+    private boolean estimateMissingUsage = true;
+    private Node defaults = new Node(Duration.ofMinutes(2), 2, 2000, 0.0, 8000, null);
+    /**
+     * Per graph node overrides, keyed by node name. Use the bracket notation in YAML, e.g. {@code "[agent_review]"}.
+     */
+    private Map<String, Node> nodes = new HashMap<>();
+    /**
+     * Named providers or models, in order of preference. When empty the top level {@code base-url},
+     * {@code api-key} and {@code model-name} form a single endpoint named {@value #DEFAULT_ENDPOINT}.
+     */
+    private Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private Hedging hedging = new Hedging();
+    private Health health = new Health();
+    private Limiter limiter = new Limiter();
+
+    public static final String DEFAULT_ENDPOINT = "default";
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Node {
+        private Duration timeout;
+        private Integer maxRetries;
+        private Integer maxTokens;
+        private Double temperature;
+        /**
+         * Estimated prompt size above which a call is rejected without reaching the provider, 0 for no limit.
+         */
+        private Integer maxPromptTokens;
+        /**
+         * Endpoints serving the node, the first healthy one is the primary and the others take hedges and failovers.
+         * Defaults to every configured endpoint.
+         */
+        private List<String> endpoints;
+    }
+
+    /**
+     * Settings of one endpoint, unset values fall back to the top level ones.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Endpoint {
+        private String baseUrl;
+        @ToString.Exclude
+        private String apiKey;
+        private String modelName;
+    }
+
+    /**
+     * A second request is sent to the next endpoint when the primary is slower than the usual latency of the node.
+     */
+    @Data
+    public static class Hedging {
+        private boolean enabled = true;
+        /**
+         * Latency percentile of the node's recent calls after which a hedge is sent.
+         */
+        private double percentile = 95;
+        /**
+         * Hedge delay while fewer than {@code minSamples} latencies are known.
+         */
+        private Duration initialDelay = Duration.ofSeconds(30);
+        private Duration minDelay = Duration.ofSeconds(1);
+        private int minSamples = 20;
+        /**
+         * Recent latencies kept per node.
+         */
+        private int window = 200;
+        private int maxHedges = 1;
+    }
+
+    @Data
+    public static class Health {
+        /**
+         * Consecutive failures after which an endpoint stops being used as primary.
+         */
+        private int failureThreshold = 3;
+        /**
+         * Time an unhealthy endpoint is left alone before it is tried again as primary.
+         */
+        private Duration cooldown = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Adaptive limit on concurrent calls to the provider, see {@link AdaptiveConcurrencyLimiter}.
+     */
+    @Data
+    public static class Limiter {
+        private boolean enabled = true;
+        private int initialLimit = 8;
+        private int minLimit = 1;
+        private int maxLimit = 64;
+        /**
+         * Calls waiting for a slot, further calls are rejected with 503.
+         */
+        private int maxQueue = 100;
+        private Duration maxWait = Duration.ofSeconds(30);
+        /**
+         * Successful calls slower than this shrink the limit like a 429 does.
+         */
+        private Duration latencyThreshold = Duration.ofSeconds(60);
+        private double backoffRatio = 0.7;
+        /**
+         * Retry-After sent with the 503 when the queue is full.
+         */
+        private Duration retryAfter = Duration.ofSeconds(10);
+    }
+
+    public Node node(String name) {
+        var node = nodes.getOrDefault(name, new Node());
+        var known = endpoints().keySet();
+        var nodeEndpoints = Objects.requireNonNullElseGet(node.getEndpoints(),
+                () -> Objects.requireNonNullElseGet(defaults.getEndpoints(), () -> List.copyOf(known)));
+        for (var endpoint : nodeEndpoints) {
+            if (!known.contains(endpoint)) {
+                throw new IllegalArgumentException("node " + name + " uses unknown endpoint " + endpoint);
+            }
+        }
+        return new Node(
+                Objects.requireNonNullElse(node.getTimeout(), defaults.getTimeout()),
+                Objects.requireNonNullElse(node.getMaxRetries(), defaults.getMaxRetries()),
+                Objects.requireNonNullElse(node.getMaxTokens(), defaults.getMaxTokens()),
+                Objects.requireNonNullElse(node.getTemperature(), defaults.getTemperature()),
+                Objects.requireNonNullElse(node.getMaxPromptTokens(), defaults.getMaxPromptTokens()),
+                List.copyOf(nodeEndpoints));
+    }
+
+    /**
+     * @return the configured endpoints with the top level values filled in, in order of preference
+     */
+    public Map<String, Endpoint> endpoints() {
+        if (endpoints.isEmpty()) {
+            return Map.of(DEFAULT_ENDPOINT, new Endpoint(baseUrl, apiKey, modelName));
+        }
+        var result = new LinkedHashMap<String, Endpoint>();
+        endpoints.forEach((name, endpoint) -> result.put(name, new Endpoint(
+                Objects.requireNonNullElse(endpoint.getBaseUrl(), baseUrl),
+                Objects.requireNonNullElse(endpoint.getApiKey(), apiKey),
+                Objects.requireNonNullElse(endpoint.getModelName(), modelName))));
+        return result;
+    }
+
+    /**
+     * @return the models answers may come from, part of the result cache key
+     */
+    public String modelFingerprint() {
+        var models = new TreeSet<String>();
+        endpoints().values().forEach(endpoint -> models.add(String.valueOf(endpoint.getModelName())));
+        return String.join(",", models);
+    }
+}
@@ -0,0 +1,56 @@
+package com.diagram.ai.llm;
+
+/**
+ * Follows a completion token by token and tells when the payload the prompts ask for is complete: the closing fence
+ * of a {@code ```json} block or the {@code @enduml} line. Whatever the model adds after that is chatter.
+ * <p>
+ * Only the lines completed since the previous token are scanned, so the cost stays linear in the completion length.
+ */
+class PayloadExtractor {
+    private static final String JSON_FENCE = "```json";
+    private static final String FENCE = "```";
+    private static final String END_UML = "@enduml";
+
+    private final StringBuilder text = new StringBuilder();
+    private int lineStart;
+    private boolean inJson;
+    private boolean complete;
+
+    /**
+     * @return true once the payload is complete, later tokens are ignored
+     */
+    boolean append(String token) {
+        if (complete) {
+            return true;
+        }
+        text.append(token);
+
+        int newline;
+        while (!complete && (newline = text.indexOf("\n", lineStart)) >= 0) {
+            line(text.substring(lineStart, newline).strip());
+            lineStart = newline + 1;
+        }
+        return complete;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the completion so far, up to the end of the payload once it is complete
+     */
+    String text() {
+        return complete ? text.substring(0, lineStart) : text.toString();
+    }
+
+    private void line(String line) {
+        if (inJson) {
+            complete = line.startsWith(FENCE);
+        } else if (line.startsWith(JSON_FENCE)) {
+            inJson = true;
+        } else {
+            complete = line.equalsIgnoreCase(END_UML);
+        }
+    }
+}
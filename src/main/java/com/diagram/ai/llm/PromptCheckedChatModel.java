@@ -0,0 +1,55 @@
+package com.diagram.ai.llm;
+
+import com.diagram.ai.exceptions.BadRequestException;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Rejects prompts whose {@link TokenEstimator estimate} exceeds the node's limit before they take a slot of the
+ * limiter or reach the provider.
+ */
+class PromptCheckedChatModel implements DiagramChatModel {
+    private final DiagramChatModel delegate;
+    private final String node;
+    private final int maxPromptTokens;
+
+    PromptCheckedChatModel(DiagramChatModel delegate, String node, int maxPromptTokens) {
+        this.delegate = delegate;
+        this.node = node;
+        this.maxPromptTokens = maxPromptTokens;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, Consumer<String> partials) {
+        check(messages);
+        return delegate.generate(messages, partials);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        check(messages);
+        return delegate.generate(messages, toolSpecifications);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        check(messages);
+        return delegate.generate(messages, toolSpecification);
+    }
+
+    private void check(List<ChatMessage> messages) {
+        if (maxPromptTokens <= 0) {
+            return;
+        }
+        int tokens = TokenEstimator.estimate(messages);
+        if (tokens > maxPromptTokens) {
+            throw new BadRequestException("The " + node + " prompt would take about " + tokens
+                    + " tokens, more than the limit of " + maxPromptTokens + "; the diagram is too large");
+        }
+    }
+}
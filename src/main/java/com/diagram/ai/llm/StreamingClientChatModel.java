@@ -0,0 +1,124 @@
+package com.diagram.ai.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Blocking facade over a streaming client. Tokens are forwarded as they arrive and the generation is stopped as
+ * soon as the {@link PayloadExtractor} sees the end of the payload, so chatter after it costs neither time nor tokens.
+ * <p>
+ * A call failing before its first token is retried up to {@code maxRetries} times with an exponential backoff, like
+ * the non streaming client does; tokens already forwarded cannot be taken back, so later failures are not retried.
+ */
+class StreamingClientChatModel implements DiagramChatModel {
+    private static final Duration RETRY_DELAY = Duration.ofMillis(500);
+
+    private final StreamingChatLanguageModel delegate;
+    private final int maxRetries;
+    private final Counter stoppedEarly;
+
+    /**
+     * Thrown from the token callback to make the client drop the connection.
+     */
+    private static final class StopGeneration extends RuntimeException {
+        StopGeneration() {
+            super("payload complete", null, false, false);
+        }
+    }
+
+    StreamingClientChatModel(StreamingChatLanguageModel delegate, int maxRetries, MeterRegistry registry,
+                             String model) {
+        this.delegate = delegate;
+        this.maxRetries = maxRetries;
+        this.stoppedEarly = Counter.builder("diagram.llm.stream.stopped")
+                .description("Streamed completions cut off once their payload was complete")
+                .tag("model", model)
+                .register(registry);
+    }
+
+    /**
+     * A completion cut off early never receives the provider's usage, nor does one from a provider that does not
+     * report it in streams; both come back without usage, which {@link InstrumentedChatModel} estimates.
+     */
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, Consumer<String> partials) {
+        for (int attempt = 0; ; attempt++) {
+            var streamed = new StringBuilder();
+            try {
+                return stream(messages, partials, streamed);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries || !streamed.isEmpty()) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY.multipliedBy(1L << attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("interrupted while waiting to retry the completion");
+                }
+            }
+        }
+    }
+
+    private Response<AiMessage> stream(List<ChatMessage> messages, Consumer<String> partials, StringBuilder streamed) {
+        var extractor = new PayloadExtractor();
+        var result = new CompletableFuture<Response<AiMessage>>();
+
+        delegate.generate(messages, new StreamingResponseHandler<>() {
+            @Override
+            public void onNext(String token) {
+                if (result.isDone()) {
+                    // completed early or abandoned by the caller
+                    throw new StopGeneration();
+                }
+                partials.accept(token);
+                streamed.append(token);
+                if (extractor.append(token)) {
+                    stoppedEarly.increment();
+                    result.complete(Response.from(AiMessage.from(extractor.text()), null, FinishReason.STOP));
+                    throw new StopGeneration();
+                }
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (!(error instanceof StopGeneration)) {
+                    result.completeExceptionally(error);
+                }
+            }
+        });
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while streaming the completion");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.diagram.ai.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.util.List;
+
+/**
+ * Rough local estimate of the tokens a BPE tokenizer makes of a text, enough to guard prompt sizes without a
+ * tokenizer dependency: letter runs cost one token per four letters, digit runs one per three digits and every other
+ * visible character one token. Whitespace is folded into the following token.
+ */
+public final class TokenEstimator {
+    /**
+     * Per message overhead of the chat format.
+     */
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {}
+
+    public static int estimate(String text) {
+        int tokens = 0;
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                int start = i;
+                while (i < length && Character.isLetter(text.charAt(i))) {
+                    i++;
+                }
+                tokens += (i - start + 3) / 4;
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < length && Character.isDigit(text.charAt(i))) {
+                    i++;
+                }
+                tokens += (i - start + 2) / 3;
+            } else {
+                if (!Character.isWhitespace(c)) {
+                    tokens++;
+                }
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Images are not counted, their cost depends on the provider's tiling.
+     */
+    public static int estimate(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (var message : messages) {
+            tokens += MESSAGE_OVERHEAD;
+            if (message instanceof SystemMessage system) {
+                tokens += estimate(system.text());
+            } else if (message instanceof AiMessage ai && ai.text() != null) {
+                tokens += estimate(ai.text());
+            } else if (message instanceof UserMessage user) {
+                for (var content : user.contents()) {
+                    if (content instanceof TextContent text) {
+                        tokens += estimate(text.text());
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+}
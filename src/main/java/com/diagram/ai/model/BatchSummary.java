@@ -0,0 +1,14 @@
+package com.diagram.ai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchSummary {
+    private int total;
+    private int succeeded;
+    private int failed;
+}
@@ -0,0 +1,20 @@
+package com.diagram.ai.model;
+
+import com.diagram.ai.core.Diagram;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DiagramEvent {
+    private String requestId;
+    private String node;
+    private Diagram.Element diagram;
+    private String diagramCode;
+    private String evaluationResult;
+    private String evaluationError;
+}
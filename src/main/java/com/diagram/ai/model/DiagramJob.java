@@ -0,0 +1,18 @@
+package com.diagram.ai.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DiagramJob {
+    private String id;
+    private JobStatus status;
+    private long createdAt;
+    private long updatedAt;
+    private String callbackUrl;
+    private DiagramResponse result;
+    private String error;
+}
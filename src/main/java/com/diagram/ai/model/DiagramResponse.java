@@ -1,5 +1,6 @@
 package com.diagram.ai.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -7,6 +8,27 @@ import lombok.NoArgsConstructor;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class DiagramResponse {
     private String diagramCode;
+    /**
+     * False when the correction loop gave up and {@code diagramCode} is a best effort that does not parse.
+     */
+    private Boolean valid;
+    /**
+     * Last PlantUML error of {@code diagramCode}, set only when it is not valid.
+     */
+    private String evaluationError;
+    /**
+     * Media type of {@code image}, set only when rendering was requested.
+     */
+    private String imageType;
+    /**
+     * Base64 encoded rendering of {@code diagramCode}.
+     */
+    private String image;
+
+    public DiagramResponse(String diagramCode) {
+        this.diagramCode = diagramCode;
+    }
 }
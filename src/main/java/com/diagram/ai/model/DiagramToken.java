@@ -0,0 +1,16 @@
+package com.diagram.ai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Part of a completion streamed by an LLM node, sent before the node's own event.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramToken {
+    private String node;
+    private String token;
+}
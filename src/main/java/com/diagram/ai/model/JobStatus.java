@@ -0,0 +1,8 @@
+package com.diagram.ai.model;
+
+public enum JobStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
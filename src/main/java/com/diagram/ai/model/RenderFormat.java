@@ -0,0 +1,26 @@
+package com.diagram.ai.model;
+
+import com.diagram.ai.exceptions.BadRequestException;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Arrays;
+
+@Getter
+@RequiredArgsConstructor
+public enum RenderFormat {
+    SVG("image/svg+xml"),
+    PNG("image/png");
+
+    private final String mediaType;
+
+    /**
+     * @param value {@code svg} or {@code png}, case insensitive
+     */
+    public static RenderFormat of(String value) {
+        return Arrays.stream(values())
+                .filter(format -> format.name().equalsIgnoreCase(value))
+                .findFirst()
+                .orElseThrow(() -> new BadRequestException("unsupported render format: " + value));
+    }
+}
@@ -0,0 +1,132 @@
+package com.diagram.ai.services;
+
+import com.diagram.ai.configurations.DiagramBatchProperties;
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.core.PipelineExecutors;
+import com.diagram.ai.exceptions.BadRequestException;
+import com.diagram.ai.llm.LlmPriority;
+import com.diagram.ai.model.BatchItemResult;
+import com.diagram.ai.model.BatchSummary;
+import com.diagram.ai.model.DiagramResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Converts many images and diagram descriptions at once, streaming each result as soon as it is ready.
+ */
+@Slf4j
+@Service
+public class DiagramBatchService {
+    private final DiagramBatchProperties properties;
+    private final DiagramProcessingService processingService;
+    private final PipelineExecutors executors;
+
+    private record Item(String name, Supplier<CompletableFuture<DiagramResponse>> conversion) {}
+
+    public DiagramBatchService(DiagramBatchProperties properties,
+                               DiagramProcessingService processingService,
+                               PipelineExecutors executors) {
+        this.properties = properties;
+        this.processingService = processingService;
+        this.executors = executors;
+    }
+
+    public SseEmitter convert(List<MultipartFile> files, List<Diagram.Element> elements) {
+        var items = new ArrayList<Item>();
+        for (var file : Optional.ofNullable(files).orElseGet(List::of)) {
+            // multipart content does not outlive the request, read it now
+            byte[] image = DiagramProcessingService.readImage(file);
+            items.add(new Item(Objects.requireNonNullElse(file.getOriginalFilename(), "file"),
+                    () -> processingService.imageToDiagramAsync(image, LlmPriority.BATCH, null)));
+        }
+        for (var element : Optional.ofNullable(elements).orElseGet(List::of)) {
+            items.add(new Item(Objects.requireNonNullElse(element.getTitle(), "element"),
+                    () -> processingService.textToDiagramAsync(element, LlmPriority.BATCH, null)));
+        }
+
+        if (items.isEmpty()) {
+            throw new BadRequestException("no files or elements provided");
+        }
+        if (items.size() > properties.getMaxItems()) {
+            throw new BadRequestException("too many items, the limit is " + properties.getMaxItems());
+        }
+
+        var emitter = new SseEmitter(properties.getTimeout().toMillis());
+        var cancelled = new AtomicBoolean();
+        Set<CompletableFuture<DiagramResponse>> running = ConcurrentHashMap.newKeySet();
+        Runnable cancel = () -> {
+            cancelled.set(true);
+            running.forEach(conversion -> conversion.cancel(true));
+        };
+        emitter.onCompletion(cancel);
+        emitter.onTimeout(cancel);
+        emitter.onError(e -> cancel.run());
+
+        var permits = new Semaphore(properties.getConcurrency());
+        var remaining = new AtomicInteger(items.size());
+        var succeeded = new AtomicInteger();
+
+        for (int i = 0; i < items.size(); i++) {
+            var index = i;
+            var item = items.get(i);
+            executors.io().execute(() -> {
+                var result = new BatchItemResult(index, item.name(), false, null, null);
+                try {
+                    permits.acquire();
+                    try {
+                        if (cancelled.get()) {
+                            result.setError("batch cancelled");
+                        } else {
+                            var conversion = item.conversion().get();
+                            running.add(conversion);
+                            try {
+                                result.setResult(conversion.join());
+                            } finally {
+                                running.remove(conversion);
+                            }
+                            result.setSuccess(true);
+                            succeeded.incrementAndGet();
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.setError("interrupted");
+                } catch (CancellationException e) {
+                    result.setError("batch cancelled");
+                } catch (Exception e) {
+                    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.warn("batch item {} '{}' failed", index, item.name(), cause);
+                    result.setError(Objects.requireNonNullElse(cause.getMessage(), cause.getClass().getName()));
+                }
+
+                SseEvents.send(emitter, "item", result);
+
+                if (remaining.decrementAndGet() == 0) {
+                    SseEvents.send(emitter, "done",
+                            new BatchSummary(items.size(), succeeded.get(), items.size() - succeeded.get()));
+                    emitter.complete();
+                }
+            });
+        }
+
+        return emitter;
+    }
+}
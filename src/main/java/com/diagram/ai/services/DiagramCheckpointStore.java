@@ -0,0 +1,197 @@
+package com.diagram.ai.services;
+
+import com.diagram.ai.configurations.DiagramCheckpointProperties;
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.core.ImageToDiagram;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pipeline state saved after every completed node, one gzipped JSON file per conversion.
+ * <p>
+ * Only the state later nodes need is kept: the preprocessed image until it has been described, then the diagram,
+ * the diagram code history and the spent budgets. Checkpoints are deleted once their conversion finishes and
+ * expire after the configured TTL otherwise.
+ * <p>
+ * Only conversions with a request or job id are checkpointed. Without one nothing ties a retry to its failed
+ * attempt, and identical content converted concurrently would overwrite and delete each other's checkpoint.
+ */
+@Slf4j
+@Component
+public class DiagramCheckpointStore {
+    private static final Gson GSON = new Gson();
+    private static final HexFormat HEX = HexFormat.of();
+    private static final String SUFFIX = ".json.gz";
+
+    private final DiagramCheckpointProperties properties;
+
+    /**
+     * @param node last completed node, the pipeline resumes after it
+     */
+    record Checkpoint(long createdAt, String node, String imageData, String imageMimeType, Diagram.Element diagram,
+                      List<String> diagramCode, int reviews, int tokens) {
+
+        static Checkpoint of(String node, ImageToDiagram.State state) {
+            var diagram = state.diagram().orElse(null);
+            return new Checkpoint(System.currentTimeMillis(), node,
+                    // the image is not needed once it has been described
+                    diagram == null ? state.imageData().orElse(null) : null,
+                    diagram == null ? state.imageMimeType().orElse(null) : null,
+                    diagram,
+                    state.diagramCode().isEmpty() ? null : state.diagramCode(),
+                    state.reviews(),
+                    state.tokens());
+        }
+
+        /**
+         * @return the state to start the pipeline from
+         */
+        Map<String, Object> toState() {
+            var state = new HashMap<String, Object>();
+            state.put("resumeAfter", node);
+            if (imageData != null) {
+                state.put("imageData", imageData);
+            }
+            if (imageMimeType != null) {
+                state.put("imageMimeType", imageMimeType);
+            }
+            if (diagram != null) {
+                state.put("diagram", diagram);
+            }
+            if (diagramCode != null) {
+                state.put("diagramCode", diagramCode);
+            }
+            state.put("reviews", reviews);
+            state.put("tokens", tokens);
+            return state;
+        }
+    }
+
+    public DiagramCheckpointStore(DiagramCheckpointProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @param contentKey result cache key of the request content
+     * @param requestId  id the client sends again with its retries, or the job id, may be null
+     * @return key of the conversion's checkpoint, null when the conversion is not checkpointed
+     */
+    public String key(String contentKey, String requestId) {
+        if (requestId == null || requestId.isBlank()) {
+            return null;
+        }
+        // a reused request id must not resume the conversion of another content
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(contentKey.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(requestId.getBytes(StandardCharsets.UTF_8));
+            return HEX.formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Optional<Checkpoint> load(String key) {
+        if (!properties.isEnabled() || key == null) {
+            return Optional.empty();
+        }
+        var checkpoint = read(file(key));
+        if (checkpoint != null && isExpired(checkpoint)) {
+            delete(key);
+            return Optional.empty();
+        }
+        return Optional.ofNullable(checkpoint);
+    }
+
+    void save(String key, String node, ImageToDiagram.State state) {
+        if (!properties.isEnabled() || key == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(properties.getDirectory());
+            Path tmp = Files.createTempFile(properties.getDirectory(), key, ".tmp");
+            try (var writer = new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8)) {
+                GSON.toJson(Checkpoint.of(node, state), writer);
+            }
+            Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("unable to write checkpoint {}", key, e);
+        }
+    }
+
+    void delete(String key) {
+        if (key == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file(key));
+        } catch (IOException e) {
+            log.warn("unable to delete checkpoint {}", key, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${diagram.checkpoint.purge-interval:PT5M}")
+    public void purge() {
+        if (!Files.isDirectory(properties.getDirectory())) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(properties.getDirectory())) {
+            files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .forEach(file -> {
+                        var checkpoint = read(file);
+                        if (checkpoint == null || isExpired(checkpoint)) {
+                            try {
+                                Files.deleteIfExists(file);
+                            } catch (IOException e) {
+                                log.warn("unable to delete checkpoint {}", file, e);
+                            }
+                        }
+                    });
+        } catch (IOException e) {
+            log.warn("unable to purge checkpoint directory {}", properties.getDirectory(), e);
+        }
+    }
+
+    private boolean isExpired(Checkpoint checkpoint) {
+        return System.currentTimeMillis() - checkpoint.createdAt() > properties.getTtl().toMillis();
+    }
+
+    private Checkpoint read(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (var reader = new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, Checkpoint.class);
+        } catch (Exception e) {
+            log.warn("unable to read checkpoint {}", file, e);
+            return null;
+        }
+    }
+
+    private Path file(String key) {
+        return properties.getDirectory().resolve(key + SUFFIX);
+    }
+}
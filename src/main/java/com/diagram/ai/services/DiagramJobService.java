@@ -0,0 +1,249 @@
+package com.diagram.ai.services;
+
+import com.diagram.ai.configurations.DiagramJobProperties;
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.exceptions.BadRequestException;
+import com.diagram.ai.exceptions.NotFoundException;
+import com.diagram.ai.exceptions.ServiceUnavailableException;
+import com.diagram.ai.llm.LlmPriority;
+import com.diagram.ai.model.DiagramJob;
+import com.diagram.ai.model.DiagramResponse;
+import com.diagram.ai.model.JobStatus;
+import com.google.gson.Gson;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Runs conversions in the background on virtual threads and keeps their state in the {@link DiagramJobStore}.
+ * <p>
+ * At most {@code workers} jobs run at once and at most {@code workers + queueCapacity} are accepted, beyond that
+ * submissions are rejected with 503. Callbacks go only to https URLs on the configured hosts.
+ */
+@Slf4j
+@Service
+public class DiagramJobService {
+    private static final Gson GSON = new Gson();
+
+    private final DiagramJobProperties properties;
+    private final DiagramJobStore store;
+    private final DiagramProcessingService processingService;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore accepted;
+    private final Semaphore running;
+    private final Set<String> callbackHosts;
+    private final RestClient restClient;
+    private final Duration timeout;
+
+    public DiagramJobService(DiagramJobProperties properties,
+                             DiagramJobStore store,
+                             DiagramProcessingService processingService,
+                             @Value("${diagram.request.timeout:PT10M}") Duration timeout) {
+        this.properties = properties;
+        this.store = store;
+        this.processingService = processingService;
+        this.timeout = timeout;
+        // the workers spend their time waiting on the LLM, a virtual thread per job is cheap and the semaphores
+        // bound both the jobs in flight and the ones waiting for a worker
+        this.accepted = new Semaphore(properties.getWorkers() + properties.getQueueCapacity());
+        this.running = new Semaphore(properties.getWorkers());
+        this.callbackHosts = properties.getCallbackHosts().stream()
+                .map(host -> host.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+
+        var requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(properties.getCallbackConnectTimeout());
+        requestFactory.setReadTimeout(properties.getCallbackReadTimeout());
+        this.restClient = RestClient.builder().requestFactory(requestFactory).build();
+    }
+
+    public DiagramJob submitImage(MultipartFile file, String callbackUrl) {
+        checkCallbackUrl(callbackUrl);
+        var image = DiagramProcessingService.readImage(file);
+        return submit(new DiagramJobStore.Input(true, Base64.getEncoder().encodeToString(image)), callbackUrl);
+    }
+
+    public DiagramJob submitText(Diagram.Element element, String callbackUrl) {
+        checkCallbackUrl(callbackUrl);
+        return submit(new DiagramJobStore.Input(false, GSON.toJson(element)), callbackUrl);
+    }
+
+    public DiagramJob find(String id) {
+        return store.find(id).orElseThrow(() -> new NotFoundException("job not found: " + id));
+    }
+
+    private DiagramJob submit(DiagramJobStore.Input input, String callbackUrl) {
+        var job = new DiagramJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(JobStatus.PENDING);
+        job.setCreatedAt(System.currentTimeMillis());
+        job.setUpdatedAt(job.getCreatedAt());
+        job.setCallbackUrl(callbackUrl);
+
+        if (!accepted.tryAcquire()) {
+            throw new ServiceUnavailableException("job queue is full, retry later");
+        }
+        store.saveInput(job.getId(), input);
+        store.save(job);
+        executor.execute(() -> run(job.getId()));
+
+        return job;
+    }
+
+    /**
+     * Rejects callback URLs the service must not post to: anything but https, URLs with credentials and hosts
+     * outside {@code callbackHosts}. The host is matched exactly, a redirect is not followed for a POST.
+     */
+    private void checkCallbackUrl(String callbackUrl) {
+        if (callbackUrl == null || callbackUrl.isBlank()) {
+            return;
+        }
+        URI uri;
+        try {
+            uri = new URI(callbackUrl);
+        } catch (URISyntaxException e) {
+            throw new BadRequestException("callbackUrl is not a valid URL");
+        }
+        if (!"https".equalsIgnoreCase(uri.getScheme()) || uri.getRawUserInfo() != null) {
+            throw new BadRequestException("callbackUrl must be an https URL without credentials");
+        }
+        if (uri.getHost() == null || !callbackHosts.contains(uri.getHost().toLowerCase(Locale.ROOT))) {
+            throw new BadRequestException("callbackUrl host is not allowed");
+        }
+    }
+
+    private void run(String id) {
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted.release();
+            return;
+        }
+        try {
+            execute(id);
+        } finally {
+            running.release();
+            accepted.release();
+        }
+    }
+
+    private void execute(String id) {
+        var job = store.find(id).orElse(null);
+        var input = store.findInput(id).orElse(null);
+        if (job == null || input == null) {
+            log.warn("job {} vanished before it could run", id);
+            return;
+        }
+
+        update(job, JobStatus.RUNNING);
+        CompletableFuture<DiagramResponse> conversion = null;
+        try {
+            // nobody waits on a job, it queues behind interactive conversions for the LLM; the job id lets a job
+            // resumed after a restart continue after its last checkpoint
+            conversion = input.image()
+                    ? processingService.imageToDiagramAsync(
+                            Base64.getDecoder().decode(input.payload()), LlmPriority.BATCH, id)
+                    : processingService.textToDiagramAsync(
+                            GSON.fromJson(input.payload(), Diagram.Element.class), LlmPriority.BATCH, id);
+            // the same deadline as a conversion over HTTP, a stuck provider call must not hold a worker forever
+            job.setResult(conversion.copy().orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).join());
+            update(job, JobStatus.COMPLETED);
+        } catch (Exception e) {
+            var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof TimeoutException) {
+                conversion.cancel(true);
+                log.warn("job {} took longer than {}s, cancelled", id, timeout.toSeconds());
+                job.setError("job took longer than " + timeout.toSeconds() + "s");
+            } else {
+                log.warn("job {} failed", id, cause);
+                job.setError(Objects.requireNonNullElse(cause.getMessage(), cause.getClass().getName()));
+            }
+            update(job, JobStatus.FAILED);
+        }
+        store.deleteInput(id);
+
+        notify(job);
+    }
+
+    private void update(DiagramJob job, JobStatus status) {
+        job.setStatus(status);
+        job.setUpdatedAt(System.currentTimeMillis());
+        store.save(job);
+    }
+
+    private void notify(DiagramJob job) {
+        if (job.getCallbackUrl() == null || job.getCallbackUrl().isBlank()) {
+            return;
+        }
+        try {
+            // jobs resumed after a restart were accepted under the allowlist of that time
+            checkCallbackUrl(job.getCallbackUrl());
+            restClient.post()
+                    .uri(job.getCallbackUrl())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(job)
+                    .retrieve()
+                    .toBodilessEntity();
+        } catch (Exception e) {
+            log.warn("callback of job {} to {} failed: {}", job.getId(), job.getCallbackUrl(), e.getMessage());
+        }
+    }
+
+    /**
+     * Re-queues the jobs that were pending or running when the service stopped.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        store.findAll().stream()
+                .filter(job -> job.getStatus() == JobStatus.PENDING || job.getStatus() == JobStatus.RUNNING)
+                .forEach(job -> {
+                    log.info("resuming job {}", job.getId());
+                    if (accepted.tryAcquire()) {
+                        executor.execute(() -> run(job.getId()));
+                    } else {
+                        job.setError("job queue is full, resubmit the job");
+                        update(job, JobStatus.FAILED);
+                    }
+                });
+    }
+
+    @Scheduled(fixedDelayString = "PT1H")
+    public void purge() {
+        long threshold = System.currentTimeMillis() - properties.getRetention().toMillis();
+        store.findAll().stream()
+                .filter(job -> job.getStatus() == JobStatus.COMPLETED || job.getStatus() == JobStatus.FAILED)
+                .filter(job -> job.getUpdatedAt() < threshold)
+                .forEach(job -> store.delete(job.getId()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,122 @@
+package com.diagram.ai.services;
+
+import com.diagram.ai.configurations.DiagramJobProperties;
+import com.diagram.ai.model.DiagramJob;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Keeps every job and its input as JSON files, so queued and running jobs survive a restart.
+ */
+@Slf4j
+@Component
+public class DiagramJobStore {
+    private static final Gson GSON = new Gson();
+    private static final String JOB = ".json";
+    private static final String INPUT = ".input";
+
+    private final DiagramJobProperties properties;
+
+    /**
+     * @param image   true if {@code payload} is a base64 encoded image, false if it is a {@code Diagram.Element} JSON
+     */
+    public record Input(boolean image, String payload) {}
+
+    public DiagramJobStore(DiagramJobProperties properties) {
+        this.properties = properties;
+    }
+
+    public void save(DiagramJob job) {
+        write(job.getId() + JOB, GSON.toJson(job));
+    }
+
+    public void saveInput(String id, Input input) {
+        write(id + INPUT, GSON.toJson(input));
+    }
+
+    public Optional<DiagramJob> find(String id) {
+        return read(id + JOB).map(json -> GSON.fromJson(json, DiagramJob.class));
+    }
+
+    public Optional<Input> findInput(String id) {
+        return read(id + INPUT).map(json -> GSON.fromJson(json, Input.class));
+    }
+
+    public void deleteInput(String id) {
+        delete(id + INPUT);
+    }
+
+    public void delete(String id) {
+        delete(id + JOB);
+        delete(id + INPUT);
+    }
+
+    public List<DiagramJob> findAll() {
+        if (!Files.isDirectory(properties.getDirectory())) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(properties.getDirectory())) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(JOB))
+                    .map(name -> find(name.substring(0, name.length() - JOB.length())).orElse(null))
+                    .filter(Objects::nonNull)
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Optional<String> read(String name) {
+        if (!isValidName(name)) {
+            return Optional.empty();
+        }
+        Path file = properties.getDirectory().resolve(name);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Files.readString(file));
+        } catch (IOException e) {
+            log.warn("unable to read job file {}", file, e);
+            return Optional.empty();
+        }
+    }
+
+    private void write(String name, String content) {
+        try {
+            Files.createDirectories(properties.getDirectory());
+            Path tmp = Files.createTempFile(properties.getDirectory(), name, ".tmp");
+            Files.writeString(tmp, content);
+            Files.move(tmp, properties.getDirectory().resolve(name),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void delete(String name) {
+        try {
+            Files.deleteIfExists(properties.getDirectory().resolve(name));
+        } catch (IOException e) {
+            log.warn("unable to delete job file {}", name, e);
+        }
+    }
+
+    /**
+     * Job ids come from the URL, never let them escape the store directory.
+     */
+    private static boolean isValidName(String name) {
+        return name.matches("[A-Za-z0-9-]+\\.[a-z]+");
+    }
+}
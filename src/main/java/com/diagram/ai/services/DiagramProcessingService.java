@@ -2,65 +2,372 @@ package com.diagram.ai.services;
 
 import com.diagram.ai.core.Diagram;
 import com.diagram.ai.core.ImageToDiagram;
+import com.diagram.ai.core.PipelineEvents;
+import com.diagram.ai.core.PipelineExecutors;
 import com.diagram.ai.core.ToDiagramProcess;
+import com.diagram.ai.exceptions.BadRequestException;
 import com.diagram.ai.exceptions.InvalidDataException;
+import com.diagram.ai.exceptions.ServiceUnavailableException;
+import com.diagram.ai.llm.AdaptiveConcurrencyLimiter;
+import com.diagram.ai.llm.LlmClientRegistry;
+import com.diagram.ai.llm.LlmPriority;
+import com.diagram.ai.model.DiagramEvent;
 import com.diagram.ai.model.DiagramResponse;
-import com.google.gson.Gson;
-import lombok.RequiredArgsConstructor;
+import com.diagram.ai.model.DiagramToken;
+import com.diagram.ai.model.RenderFormat;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.bsc.langgraph4j.NodeOutput;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import static org.bsc.langgraph4j.StateGraph.END;
+import static org.bsc.langgraph4j.StateGraph.START;
+import static org.bsc.langgraph4j.utils.CollectionsUtils.last;
 import static org.bsc.langgraph4j.utils.CollectionsUtils.mapOf;
 
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class DiagramProcessingService {
-    private static final Gson GSON = new Gson();
 
-    @Value("${ai.base-url}")
-    private String baseUrl;
-    @Value("${ai.api-key}")
-    private String apiKey;
-    @Value("${ai.model-name}")
-    private String modelName;
+    private final DiagramResultCache cache;
+    private final DiagramCheckpointStore checkpoints;
+    private final PlantUMLRenderService renderService;
+    private final ToDiagramProcess toDiagramProcess;
+    private final PipelineEvents events;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Duration streamTimeout;
+    private final SingleFlight<String, DiagramResponse> inFlight;
+    private final boolean coalesce;
 
-    public DiagramResponse plantImageToDiagram(MultipartFile file) {
-        try {
-            return toDiagram(Base64.getEncoder().encodeToString(file.getBytes()), true);
-        } catch (IOException e) {
-            throw new InvalidDataException(e);
+    public DiagramProcessingService(DiagramResultCache cache,
+                                    DiagramCheckpointStore checkpoints,
+                                    PlantUMLRenderService renderService,
+                                    ToDiagramProcess toDiagramProcess,
+                                    PipelineEvents events,
+                                    LlmClientRegistry llm,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${diagram.stream.timeout:PT10M}") Duration streamTimeout,
+                                    @Value("${diagram.single-flight.enabled:true}") boolean coalesce) {
+        this.cache = cache;
+        this.checkpoints = checkpoints;
+        this.renderService = renderService;
+        this.toDiagramProcess = toDiagramProcess;
+        this.events = events;
+        this.limiter = llm.limiter();
+        this.streamTimeout = streamTimeout;
+        this.inFlight = new SingleFlight<>(meterRegistry, "conversion");
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * @param render    format of the image to add to the response, null for the PlantUML code only
+     * @param requestId id the client repeats when it retries, lets the retry resume the failed attempt; may be null
+     */
+    public CompletableFuture<DiagramResponse> plantImageToDiagram(MultipartFile file, RenderFormat render,
+                                                                  String requestId) {
+        return thenCompose(imageToDiagramAsync(readImage(file), LlmPriority.INTERACTIVE, requestId),
+                response -> renderService.attach(response, render));
+    }
+
+    public CompletableFuture<DiagramResponse> plantTextToDiagram(Diagram.Element element, RenderFormat render,
+                                                                 String requestId) {
+        return thenCompose(textToDiagramAsync(element, LlmPriority.INTERACTIVE, requestId),
+                response -> renderService.attach(response, render));
+    }
+
+    /**
+     * Identical conversions in flight at the same time share one pipeline run, see {@link SingleFlight}.
+     * Cancelling the returned future abandons the run once no other caller waits for it. A conversion that failed
+     * resumes after its last completed node when it is retried, see {@link DiagramCheckpointStore}.
+     */
+    public CompletableFuture<DiagramResponse> imageToDiagramAsync(byte[] image, LlmPriority priority,
+                                                                  String requestId) {
+        return convert(cache.imageKey(image), imageInputs(image), priority, requestId);
+    }
+
+    public CompletableFuture<DiagramResponse> textToDiagramAsync(Diagram.Element element, LlmPriority priority,
+                                                                 String requestId) {
+        return convert(cache.textKey(element), textInputs(element), priority, requestId);
+    }
+
+    private CompletableFuture<DiagramResponse> convert(String key, Map<String, Object> inputs, LlmPriority priority,
+                                                       String requestId) {
+        var cached = cache.get(key);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get());
+        }
+        if (priority == LlmPriority.INTERACTIVE && limiter.isSaturated()) {
+            return CompletableFuture.failedFuture(limiter.overloaded("Too many diagram conversions in progress"));
         }
+
+        var requestInputs = withPriority(inputs, priority);
+        var checkpointKey = checkpoints.key(key, requestId);
+        var runId = UUID.randomUUID().toString();
+        Supplier<CompletableFuture<DiagramResponse>> conversion = () -> {
+            var run = toDiagram(requestInputs, runId, checkpointKey, output -> {}, null);
+            run.thenAccept(response -> cacheIfValid(key, response));
+            return run;
+        };
+        // a request or job id resumes its own checkpoint, a joined flight would drop it; flights are per priority
+        // so an interactive request never waits on a batch run
+        if (!coalesce || checkpointKey != null) {
+            return conversion.get();
+        }
+        return inFlight.execute(priority + ":" + key, runId, conversion, joined -> {
+            MDC.put(PipelineExecutors.TRACE_ID, joined);
+            try {
+                log.info("joined conversion {} of the same content at priority {}", joined, priority);
+            } finally {
+                MDC.remove(PipelineExecutors.TRACE_ID);
+            }
+        });
     }
 
-    public DiagramResponse plantTextToDiagram(Diagram.Element element) {
-        return toDiagram(GSON.toJson(element), false);
+    /**
+     * {@code first.thenCompose(next)} whose cancellation also cancels {@code first}.
+     */
+    private static <T, U> CompletableFuture<U> thenCompose(CompletableFuture<T> first,
+                                                           Function<T, CompletableFuture<U>> next) {
+        var result = first.thenCompose(next);
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                first.cancel(true);
+            }
+        });
+        return result;
     }
 
-    private DiagramResponse toDiagram(String diagramDescription, boolean isImage) {
-        try {
-            var agentExecutor = new ToDiagramProcess(diagramDescription, isImage, baseUrl, apiKey, modelName);
-            var result = agentExecutor.execute(mapOf());
+    public SseEmitter streamImageToDiagram(MultipartFile file, String requestId) {
+        byte[] image = readImage(file);
+        return stream(cache.imageKey(image), imageInputs(image), requestId);
+    }
 
-            AtomicReference<ImageToDiagram.State> state = new AtomicReference<>();
+    public SseEmitter streamTextToDiagram(Diagram.Element element, String requestId) {
+        return stream(cache.textKey(element), textInputs(element), requestId);
+    }
+
+    private SseEmitter stream(String key, Map<String, Object> inputs, String requestId) {
+        var emitter = new SseEmitter(streamTimeout.toMillis());
+
+        var cached = cache.get(key);
+        if (cached.isPresent()) {
+            send(emitter, "result", cached.get());
+            emitter.complete();
+            return emitter;
+        }
+        // fail before the 200 of the event stream is committed, so the client sees a 503 with Retry-After
+        if (limiter.isSaturated()) {
+            throw limiter.overloaded("Too many diagram conversions in progress");
+        }
 
-            result.stream().forEach(stateNodeOutput -> {
-                if (Objects.nonNull(stateNodeOutput.state())) {
-                    state.set(stateNodeOutput.state());
+        var requestInputs = withPriority(inputs, LlmPriority.INTERACTIVE);
+        var checkpointKey = checkpoints.key(key, requestId);
+        var run = toDiagram(requestInputs, UUID.randomUUID().toString(), checkpointKey,
+                output -> send(emitter, output.node(), toEvent(output)),
+                (node, token) -> send(emitter, "token", new DiagramToken(node, token)));
+        run.whenComplete((response, e) -> {
+            try {
+                if (e == null) {
+                    cacheIfValid(key, response);
+                    send(emitter, "result", response);
+                } else {
+                    send(emitter, "error", Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()));
                 }
-            });
+            } finally {
+                emitter.complete();
+            }
+        });
+        // the client went away or the stream timed out, stop the pipeline before its next step
+        emitter.onTimeout(() -> run.cancel(true));
+        emitter.onError(e -> run.cancel(true));
+
+        return emitter;
+    }
+
+    /**
+     * Runs the pipeline without blocking the caller: every node is pulled from the completion of the previous one,
+     * so no thread waits on the pipeline itself. Cancelling the returned future stops the run before its next node.
+     *
+     * @param runId         id of this run, the trace id of its log lines
+     * @param checkpointKey the state is saved under this key after every node, and restored from it when an earlier
+     *                      attempt failed; null runs without checkpoints
+     * @param tokens        receives the tokens streamed by the LLM nodes, may be null
+     */
+    private CompletableFuture<DiagramResponse> toDiagram(Map<String, Object> inputs,
+                                                         String runId,
+                                                         String checkpointKey,
+                                                         Consumer<NodeOutput<ImageToDiagram.State>> listener,
+                                                         BiConsumer<String, String> tokens) {
+        var requestInputs = new HashMap<>(inputs);
+        checkpoints.load(checkpointKey).ifPresent(checkpoint -> {
+            log.info("resuming conversion after {}", checkpoint.node());
+            requestInputs.putAll(checkpoint.toState());
+        });
+        requestInputs.put("requestId", runId);
+        requestInputs.put("startedAt", System.currentTimeMillis());
 
-            return new DiagramResponse(state.get().diagramCode().getFirst());
+        // correction steps reach the listener through the events, the other nodes through the stream below
+        Consumer<NodeOutput<ImageToDiagram.State>> checkpointing = output -> {
+            if (!START.equals(output.node()) && !END.equals(output.node())) {
+                checkpoints.save(checkpointKey, output.node(), output.state());
+            }
+            listener.accept(output);
+        };
+
+        var result = new CompletableFuture<DiagramResponse>();
+        AtomicReference<ImageToDiagram.State> state = new AtomicReference<>();
+        events.register(runId, checkpointing);
+        if (tokens != null) {
+            events.registerTokens(runId, tokens);
+        }
+        try {
+            toDiagramProcess.execute(requestInputs)
+                    .collectAsync(new ArrayList<>(), stateNodeOutput -> {
+                        if (result.isDone()) {
+                            throw new CancellationException("conversion " + runId + " cancelled");
+                        }
+                        if (Objects.nonNull(stateNodeOutput.state())) {
+                            state.set(stateNodeOutput.state());
+                            checkpointing.accept(stateNodeOutput);
+                        }
+                    })
+                    .whenComplete((outputs, e) -> {
+                        MDC.put(PipelineExecutors.TRACE_ID, runId);
+                        try {
+                            if (e != null) {
+                                result.completeExceptionally(failure(e));
+                                return;
+                            }
+                            checkpoints.delete(checkpointKey);
+                            result.complete(toResponse(state.get()));
+                        } catch (Exception ex) {
+                            result.completeExceptionally(failure(ex));
+                        } finally {
+                            MDC.remove(PipelineExecutors.TRACE_ID);
+                            events.unregister(runId);
+                        }
+                    });
         } catch (Exception e) {
-            log.error(e.getMessage(), e);
+            events.unregister(runId);
+            result.completeExceptionally(failure(e));
+        }
+        return result;
+    }
+
+    /**
+     * @return what the caller of a failed conversion gets, 503 and 400 rejections as they are, anything else as
+     * invalid data
+     */
+    private static Throwable failure(Throwable e) {
+        var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof CancellationException) {
+            log.info(cause.getMessage());
+            return cause;
+        }
+        var rejected = rejection(cause);
+        if (rejected != null) {
+            log.warn(rejected.getMessage());
+            return rejected;
+        }
+        log.error(cause.getMessage(), cause);
+        return new InvalidDataException(cause);
+    }
+
+    /**
+     * A correction loop that ran out of budget still answers, with its last diagram flagged invalid.
+     */
+    private static DiagramResponse toResponse(ImageToDiagram.State state) {
+        var response = new DiagramResponse(state.diagramCode().getLast());
+        var valid = state.evaluationResult()
+                .map(result -> result == ImageToDiagram.EvaluationResult.OK)
+                .orElse(false);
+        response.setValid(valid);
+        if (!valid) {
+            response.setEvaluationError(state.evaluationError().orElse(null));
+        }
+        return response;
+    }
+
+    /**
+     * Best effort results are not cached, the next identical request gets a fresh chance.
+     */
+    private void cacheIfValid(String key, DiagramResponse response) {
+        if (Boolean.TRUE.equals(response.getValid())) {
+            cache.put(key, response);
+        }
+    }
+
+    /**
+     * The limiter's rejection and the prompt size check travel up through the graph wrapped in completion
+     * exceptions, they must reach the client as a 503 or a 400 rather than as invalid data.
+     */
+    private static RuntimeException rejection(Throwable e) {
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ServiceUnavailableException || cause instanceof BadRequestException) {
+                return (RuntimeException) cause;
+            }
+        }
+        return null;
+    }
+
+    private DiagramEvent toEvent(NodeOutput<ImageToDiagram.State> output) {
+        var state = output.state();
+        return new DiagramEvent(
+                state.requestId().orElse(null),
+                output.node(),
+                state.diagram().orElse(null),
+                last(state.diagramCode()).orElse(null),
+                state.evaluationResult().map(Enum::name).orElse(null),
+                state.evaluationError().orElse(null));
+    }
+
+    private void send(SseEmitter emitter, String name, Object data) {
+        if (START.equals(name) || END.equals(name)) {
+            return;
+        }
+        SseEvents.send(emitter, name, data);
+    }
+
+    static byte[] readImage(MultipartFile file) {
+        try {
+            return file.getBytes();
+        } catch (IOException e) {
             throw new InvalidDataException(e);
         }
     }
+
+    private static Map<String, Object> imageInputs(byte[] image) {
+        return mapOf("imageData", Base64.getEncoder().encodeToString(image), "isImage", true);
+    }
+
+    private static Map<String, Object> textInputs(Diagram.Element element) {
+        return mapOf("diagram", element, "isImage", false);
+    }
+
+    private static Map<String, Object> withPriority(Map<String, Object> inputs, LlmPriority priority) {
+        var result = new HashMap<>(inputs);
+        result.put("priority", priority.name());
+        return result;
+    }
 }
@@ -0,0 +1,285 @@
+package com.diagram.ai.services;
+
+import com.diagram.ai.configurations.DiagramCacheProperties;
+import com.diagram.ai.core.Diagram;
+import com.diagram.ai.llm.LlmProperties;
+import com.diagram.ai.model.CacheStats;
+import com.diagram.ai.model.DiagramResponse;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of final diagram results.
+ * <p>
+ * An in-heap LRU tier sits in front of a directory of JSON files; both tiers honour the same TTL. The directory is
+ * purged periodically of expired entries and of the oldest ones beyond {@code maxDiskEntries}.
+ * Keys are SHA-256 digests of the request content, the model names and a fingerprint of the prompt templates.
+ */
+@Slf4j
+@Component
+public class DiagramResultCache {
+    private static final Gson GSON = new Gson();
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final DiagramCacheProperties properties;
+    private final String modelName;
+    private final Map<String, Entry> memory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private volatile String templatesFingerprint;
+
+    record Entry(String fingerprint, long createdAt, DiagramResponse response) {}
+
+    private record Stored(Path file, long createdAt) {}
+
+    public DiagramResultCache(DiagramCacheProperties properties, LlmProperties llmProperties) {
+        this.properties = properties;
+        this.modelName = llmProperties.modelFingerprint();
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > properties.getMaxEntries()) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.templatesFingerprint = computeTemplatesFingerprint();
+
+        if (properties.isEnabled()) {
+            purgeDisk(false);
+        }
+    }
+
+    public String imageKey(byte[] image) {
+        return key("image", image);
+    }
+
+    public String textKey(Diagram.Element element) {
+        // Gson writes fields in declaration order and skips nulls, which gives a stable canonical form
+        return key("text", GSON.toJson(element).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Optional<DiagramResponse> get(String key) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(key);
+        }
+
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                synchronized (memory) {
+                    memory.put(key, entry);
+                }
+            }
+        }
+
+        if (entry == null || isStale(entry)) {
+            if (entry != null) {
+                remove(key);
+                evictions.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        hits.incrementAndGet();
+        return Optional.of(entry.response());
+    }
+
+    public void put(String key, DiagramResponse response) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        var entry = new Entry(templatesFingerprint, System.currentTimeMillis(), response);
+        synchronized (memory) {
+            memory.put(key, entry);
+        }
+        writeToDisk(key, entry);
+    }
+
+    public void invalidateAll() {
+        synchronized (memory) {
+            memory.clear();
+        }
+        purgeDisk(true);
+        log.info("diagram cache invalidated");
+    }
+
+    public CacheStats stats() {
+        int size;
+        synchronized (memory) {
+            size = memory.size();
+        }
+        return new CacheStats(hits.get(), misses.get(), evictions.get(), size);
+    }
+
+    @Scheduled(fixedDelayString = "${diagram.cache.purge-interval:PT1H}")
+    public void purge() {
+        if (properties.isEnabled()) {
+            purgeDisk(false);
+        }
+    }
+
+    /**
+     * Drops every entry once a prompt template has been edited, e.g. on an exploded classpath during development.
+     */
+    @Scheduled(fixedDelayString = "${diagram.cache.template-check-interval:PT30S}")
+    public void checkTemplates() {
+        String fingerprint = computeTemplatesFingerprint();
+        if (!fingerprint.equals(templatesFingerprint)) {
+            log.info("prompt templates changed");
+            templatesFingerprint = fingerprint;
+            invalidateAll();
+        }
+    }
+
+    private boolean isStale(Entry entry) {
+        return !templatesFingerprint.equals(entry.fingerprint())
+                || System.currentTimeMillis() - entry.createdAt() > properties.getTtl().toMillis();
+    }
+
+    private void remove(String key) {
+        synchronized (memory) {
+            memory.remove(key);
+        }
+        try {
+            Files.deleteIfExists(file(key));
+        } catch (IOException e) {
+            log.warn("unable to delete cache entry {}", key, e);
+        }
+    }
+
+    private Entry readFromDisk(String key) {
+        Path file = file(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return GSON.fromJson(Files.readString(file), Entry.class);
+        } catch (Exception e) {
+            log.warn("unable to read cache entry {}", key, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        try {
+            Files.createDirectories(properties.getDirectory());
+            Path tmp = Files.createTempFile(properties.getDirectory(), key, ".tmp");
+            Files.writeString(tmp, GSON.toJson(entry));
+            Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("unable to write cache entry {}", key, e);
+        }
+    }
+
+    private void purgeDisk(boolean all) {
+        if (!Files.isDirectory(properties.getDirectory())) {
+            return;
+        }
+        var kept = new ArrayList<Stored>();
+        try (Stream<Path> files = Files.list(properties.getDirectory())) {
+            files.filter(file -> file.getFileName().toString().endsWith(".json"))
+                    .forEach(file -> {
+                        String name = file.getFileName().toString();
+                        Entry entry = all ? null : readFromDisk(name.substring(0, name.length() - ".json".length()));
+                        if (entry == null || isStale(entry)) {
+                            deleteFromDisk(file);
+                        } else {
+                            kept.add(new Stored(file, entry.createdAt()));
+                        }
+                    });
+        } catch (IOException e) {
+            log.warn("unable to purge cache directory {}", properties.getDirectory(), e);
+            return;
+        }
+
+        int surplus = kept.size() - properties.getMaxDiskEntries();
+        if (surplus > 0) {
+            kept.sort(Comparator.comparingLong(Stored::createdAt));
+            kept.subList(0, surplus).forEach(stored -> deleteFromDisk(stored.file()));
+            evictions.addAndGet(surplus);
+            log.info("deleted {} oldest cache entries beyond {}", surplus, properties.getMaxDiskEntries());
+        }
+    }
+
+    private static void deleteFromDisk(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("unable to delete cache entry {}", file, e);
+        }
+    }
+
+    private Path file(String key) {
+        return properties.getDirectory().resolve(key + ".json");
+    }
+
+    private String key(String kind, byte[] content) {
+        MessageDigest digest = sha256();
+        digest.update(kind.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(templatesFingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(content);
+        return HEX.formatHex(digest.digest());
+    }
+
+    private String computeTemplatesFingerprint() {
+        MessageDigest digest = sha256();
+        ClassLoader classLoader = getClass().getClassLoader();
+        for (String template : properties.getTemplates()) {
+            try (InputStream inputStream = classLoader.getResourceAsStream(template)) {
+                if (inputStream == null) {
+                    throw new IllegalArgumentException("File not found: " + template);
+                }
+                digest.update(template.getBytes(StandardCharsets.UTF_8));
+                digest.update(inputStream.readAllBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return HEX.formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.diagram.ai.services;
+
+import com.diagram.ai.configurations.DiagramRenderProperties;
+import com.diagram.ai.core.PlantUMLAction;
+import com.diagram.ai.exceptions.InvalidDataException;
+import com.diagram.ai.exceptions.ServiceUnavailableException;
+import com.diagram.ai.model.DiagramResponse;
+import com.diagram.ai.model.RenderFormat;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.plantuml.FileFormat;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders PlantUML to SVG or PNG on its own bounded pool, so rendering load cannot starve the pipeline.
+ * Results are kept in an LRU bounded by their total size in bytes.
+ */
+@Slf4j
+@Service
+public class PlantUMLRenderService {
+    private static final HexFormat HEX = HexFormat.of();
+    private static final String WARM_UP = """
+            @startuml
+            actor User
+            rectangle Service
+            User --> Service : request
+            @enduml
+            """;
+
+    private final DiagramRenderProperties properties;
+    private final ThreadPoolExecutor executor;
+    private final long maxCacheBytes;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes;
+
+    public PlantUMLRenderService(DiagramRenderProperties properties) {
+        this.properties = properties;
+        int threads = properties.getThreads() > 0 ? properties.getThreads() : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                Thread.ofPlatform().name("render-", 0).daemon().factory());
+        this.maxCacheBytes = properties.getCacheSize().toBytes();
+    }
+
+    /**
+     * @return the rendered image, completed on the render pool unless it is cached; fails with a 503 when the
+     * render queue is full
+     */
+    public CompletableFuture<byte[]> renderAsync(String code, RenderFormat format) {
+        var key = key(code, format);
+        var cached = cached(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        var result = new CompletableFuture<byte[]>();
+        try {
+            executor.execute(() -> {
+                try {
+                    var image = PlantUMLAction.render(code, fileFormat(format));
+                    store(key, image);
+                    result.complete(image);
+                } catch (Exception e) {
+                    result.completeExceptionally(new InvalidDataException(e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new ServiceUnavailableException("render queue is full, retry later"));
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of {@code response} carrying the rendered image, {@code response} itself when {@code format}
+     * is null; cached responses are shared and must not be modified
+     */
+    public CompletableFuture<DiagramResponse> attach(DiagramResponse response, RenderFormat format) {
+        if (format == null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        return renderAsync(response.getDiagramCode(), format).thenApply(image -> new DiagramResponse(
+                response.getDiagramCode(), response.getValid(), response.getEvaluationError(),
+                format.getMediaType(), Base64.getEncoder().encodeToString(image)));
+    }
+
+    private synchronized byte[] cached(String key) {
+        return cache.get(key);
+    }
+
+    private synchronized void store(String key, byte[] image) {
+        if (image.length > maxCacheBytes) {
+            return;
+        }
+        var previous = cache.put(key, image);
+        cacheBytes += image.length - (previous != null ? previous.length : 0);
+
+        Iterator<byte[]> eldest = cache.values().iterator();
+        while (cacheBytes > maxCacheBytes && eldest.hasNext()) {
+            cacheBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (properties.isWarmUp()) {
+            executor.execute(this::renderWarmUp);
+        }
+    }
+
+    private void renderWarmUp() {
+        long start = System.nanoTime();
+        try {
+            for (var format : RenderFormat.values()) {
+                PlantUMLAction.render(WARM_UP, fileFormat(format));
+            }
+            log.info("PlantUML renderer warmed up in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            log.warn("PlantUML warm up failed", e);
+        }
+    }
+
+    private static FileFormat fileFormat(RenderFormat format) {
+        return switch (format) {
+            case SVG -> FileFormat.SVG;
+            case PNG -> FileFormat.PNG;
+        };
+    }
+
+    private static String key(String code, RenderFormat format) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(format.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(code.getBytes(StandardCharsets.UTF_8));
+            return HEX.formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,135 @@
+package com.diagram.ai.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key into one execution.
+ * <p>
+ * Every caller gets its own future, so cancelling it never affects the others. The shared execution is cancelled
+ * only when the last caller waiting for it cancels. Results and failures are delivered to every caller; once the
+ * execution completes the key is free again, so later calls start a new execution. A caller that joins an execution
+ * is told the id of the caller that started it.
+ */
+class SingleFlight<K, V> {
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    SingleFlight(MeterRegistry registry, String name) {
+        this.coalesced = Counter.builder("diagram.singleflight.coalesced")
+                .description("Calls attached to an identical call already in flight")
+                .tag("name", name)
+                .register(registry);
+    }
+
+    /**
+     * @param id     identifies this call to the callers that join it
+     * @param joined receives the id of the call already in flight when this one joins it instead of executing
+     */
+    CompletableFuture<V> execute(K key, String id, Supplier<CompletableFuture<V>> call, Consumer<String> joined) {
+        while (true) {
+            var flight = new Flight<V>(id);
+            var existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                var subscriber = flight.subscribe();
+                start(key, flight, call);
+                return subscriber;
+            }
+
+            var subscriber = existing.subscribe();
+            if (subscriber != null) {
+                coalesced.increment();
+                joined.accept(existing.id);
+                return subscriber;
+            }
+            // every caller of that flight cancelled it, it is about to be removed
+            flights.remove(key, existing);
+        }
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> work;
+        try {
+            work = call.get();
+        } catch (Throwable e) {
+            work = CompletableFuture.failedFuture(e);
+        }
+
+        flight.attach(work);
+        work.whenComplete((value, e) -> {
+            flights.remove(key, flight);
+            if (e != null) {
+                flight.shared.completeExceptionally(e instanceof CompletionException && e.getCause() != null
+                        ? e.getCause()
+                        : e);
+            } else {
+                flight.shared.complete(value);
+            }
+        });
+    }
+
+    private static final class Flight<V> {
+        private final String id;
+        private final CompletableFuture<V> shared = new CompletableFuture<>();
+        private CompletableFuture<V> work;
+        private int subscribers;
+        private boolean cancelled;
+
+        Flight(String id) {
+            this.id = id;
+        }
+
+        /**
+         * @return the caller's future, null if the flight has already been cancelled
+         */
+        synchronized CompletableFuture<V> subscribe() {
+            if (cancelled) {
+                return null;
+            }
+            subscribers++;
+
+            var subscriber = new CompletableFuture<V>();
+            shared.whenComplete((value, e) -> {
+                if (e != null) {
+                    subscriber.completeExceptionally(e);
+                } else {
+                    subscriber.complete(value);
+                }
+            });
+            subscriber.whenComplete((value, e) -> {
+                if (subscriber.isCancelled()) {
+                    unsubscribe();
+                }
+            });
+            return subscriber;
+        }
+
+        synchronized void attach(CompletableFuture<V> work) {
+            this.work = work;
+            if (cancelled) {
+                work.cancel(true);
+            }
+        }
+
+        private void unsubscribe() {
+            CompletableFuture<V> toCancel;
+            synchronized (this) {
+                if (--subscribers > 0 || shared.isDone()) {
+                    return;
+                }
+                cancelled = true;
+                toCancel = work;
+            }
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.diagram.ai.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+@Slf4j
+final class SseEvents {
+
+    private SseEvents() {}
+
+    /**
+     * Sends a JSON event, a client that went away is not an error.
+     */
+    static void send(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("unable to send '{}' event, client is gone: {}", name, e.getMessage());
+        }
+    }
+}